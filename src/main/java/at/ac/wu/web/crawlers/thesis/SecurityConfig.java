@@ -14,7 +14,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
     protected void configure(HttpSecurity http) throws Exception {
         http
                 .authorizeRequests()
-                .antMatchers("/monitor/**")
+                .antMatchers("/monitor/**", "/politeness/robots/**")
                 .hasRole("ACTRADMIN")
                 .and()
                 .httpBasic() //otherwise formLogin
@@ -5,11 +5,16 @@ import at.ac.wu.web.crawlers.thesis.cache.PageCacheHandler;
 import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
 import at.ac.wu.web.crawlers.thesis.order.OrderHelper;
 import at.ac.wu.web.crawlers.thesis.order.OrderKey;
+import at.ac.wu.web.crawlers.thesis.politeness.AdaptiveDelayController;
 import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.RequestScheduler;
 import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
+import com.google.common.io.ByteStreams;
 import com.netflix.zuul.ZuulFilter;
 import com.netflix.zuul.context.RequestContext;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
@@ -33,17 +38,24 @@ import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.util.StopWatch;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.InetAddress;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static j2html.TagCreator.*;
 
@@ -54,6 +66,15 @@ import static j2html.TagCreator.*;
  */
 public class SimpleFilter extends ZuulFilter {
 
+    /**
+     * Request attribute holding the response of a delayed request until the request is
+     * dispatched to the filters again.
+     */
+    private static final String DELAYED_RESPONSE = SimpleFilter.class.getName() + ".delayedResponse";
+    /**
+     * Marks requests which wait in the fair queue instead of holding a slot.
+     */
+    private static final long QUEUED = Long.MAX_VALUE;
     private static Logger log = LoggerFactory.getLogger(SimpleFilter.class);
     private final ProxyRequestHelper helper;
 
@@ -75,6 +96,12 @@ public class SimpleFilter extends ZuulFilter {
     @Autowired
     OrderHelper orderHelper;
 
+    @Autowired
+    RequestScheduler requestScheduler;
+
+    @Autowired
+    PolitenessConfiguration politenessConfig;
+
     public SimpleFilter(TraceProxyRequestHelper helper) {
         this.helper = helper;
     }
@@ -121,10 +148,32 @@ public class SimpleFilter extends ZuulFilter {
     public Object run() {
         RequestContext context = RequestContext.getCurrentContext();
         HttpServletRequest request = context.getRequest();
+        DelayedResponse delayed = (DelayedResponse) request.getAttribute(DELAYED_RESPONSE);
+        if (delayed != null) {
+            //Dispatched again after the delay, the response goes through the post filters like any other
+            request.removeAttribute(DELAYED_RESPONSE);
+            try {
+                if (delayed.error != null) {
+                    throw delayed.error;
+                }
+                if (delayed.upstream != null) {
+                    //Closed by the post filters once the body is sent
+                    context.set("zuulResponse", delayed.upstream);
+                }
+                this.helper.setResponse(delayed.status, delayed.body, delayed.headers);
+            } catch (Exception ex) {
+                throw new ZuulRuntimeException(ex);
+            }
+            return null;
+        }
         OrderKey orderKey = null;
         orderKey = new OrderKey(request.getRemoteHost(), Thread.currentThread().getName());
         orderHelper.add(orderKey);
         URL targetURL = null;
+        String host = null;
+        String client = null;
+        long waitNanos = 0L;
+        boolean entered = false;
         try {
             targetURL = new URL(request.getRequestURL().toString());
             counterService.increment("counter.requests.total");
@@ -153,13 +202,13 @@ public class SimpleFilter extends ZuulFilter {
                         map.get(entry.getKey()).add(element);
                     }
                 }
-                InputStream responseContent = new ByteArrayInputStream(cachedContent.getData());
+                InputStream responseContent = cachedContent.getDataStream();
                 orderHelper.remove(orderKey);
                 this.helper.setResponse(200, responseContent, map);
                 return null;
             }
             //Check Robots Exclusion Protocol
-            if (!robotsTxt.allows(targetURL)) {
+            if (!robotsTxt.allows(targetURL, robotsTxt.getUserAgent(request))) {
                 counterService.increment("counter.requests.denied.robotstxt");
                 log.debug(request.getRequestURL().toString() + " blocked because of robots.txt");
                 InputStream content = new ByteArrayInputStream(getBlockedHTML().getBytes(StandardCharsets.UTF_8));
@@ -167,38 +216,83 @@ public class SimpleFilter extends ZuulFilter {
                 this.helper.setResponse(403, content, new HttpHeaders());
                 return null;
             }
-            //Check politeness constraints (delays)
-            if (!politenessCache.isAllowed(targetURL.getHost().toLowerCase())) {
+            //Check politeness constraints (delays) and reserve the slot for this request
+            host = targetURL.getHost().toLowerCase();
+            client = getClient(request);
+            if (requestScheduler.isEnabled() && request.isAsyncSupported()) {
+                if (politenessCache.isFair()) {
+                    //Queued requests go first, the scheduler decides whose turn it is
+                    waitNanos = !requestScheduler.hasQueued(host) && politenessCache.tryAcquire(host) ? 0L : QUEUED;
+                    if (waitNanos == 0L) {
+                        politenessCache.served(host, client, 0L);
+                    }
+                } else {
+                    waitNanos = politenessCache.reserve(host);
+                }
+                if (waitNanos == 0L) {
+                    if (politenessCache.tryEnter(host)) {
+                        entered = true;
+                    } else {
+                        //The slot is taken, wait for one of the requests in flight to complete
+                        waitNanos = TimeUnit.MILLISECONDS.toNanos(politenessCache.getConcurrencyRetry());
+                    }
+                }
+            } else if (!politenessCache.isTurn(host, client)) {
+                counterService.increment("counter.requests.denied.fairness");
+                log.debug(request.getRequestURL().toString() + " blocked because other clients wait for " + host);
+                orderHelper.remove(orderKey);
+                setTooManyRequests(politenessCache.getDelayForDomain(host));
+                return null;
+            } else if (!politenessCache.tryEnter(host)) {
+                counterService.increment("counter.requests.denied.concurrency");
+                log.debug(request.getRequestURL().toString() + " blocked because of too many concurrent requests");
+                orderHelper.remove(orderKey);
+                setTooManyRequests(politenessCache.getDelayForDomain(host));
+                return null;
+            } else if (politenessCache.tryAcquire(host)) {
+                entered = true;
+                politenessCache.served(host, client, -1L);
+            } else {
+                politenessCache.exit(host);
+                waitNanos = -1L;
+            }
+            if (waitNanos < 0L) {
                 counterService.increment("counter.requests.denied.politeness");
-                int delayForDomain = politenessCache.getDelayForDomain(targetURL.getHost());
+                //Remaining delay is longer than the configured one if the host asked to back off
+                int delayForDomain = Math.max(politenessCache.getDelayForDomain(host), politenessCache
+                        .getRemainingDelay(host));
                 log.debug(request.getRequestURL().toString() + " blocked because of configured delay of " +
                                   delayForDomain);
-                //https://tools.ietf.org/html/rfc6585 - include retry header and html error
-                InputStream content = new ByteArrayInputStream(getTooManyRequestsHTML(delayForDomain).getBytes
-                        (StandardCharsets.UTF_8));
-                HttpHeaders headers = new HttpHeaders();
-                headers.set(HttpHeaders.RETRY_AFTER, "" + delayForDomain);
                 orderHelper.remove(orderKey);
-                this.helper.setResponse(429, content, headers);
+                setTooManyRequests(delayForDomain);
                 return null;
             }
         } catch (Exception ex) {
+            if (entered) {
+                politenessCache.exit(host);
+            }
             orderHelper.remove(orderKey);
             throw new ZuulRuntimeException(ex);
         }
-        MultiValueMap<String, String> headers = this.helper
-                .buildZuulRequestHeaders(request);
-        MultiValueMap<String, String> params = this.helper
-                .buildZuulRequestQueryParams(request);
-        String verb = request.getMethod().toUpperCase();
-        InputStream requestEntity = getRequestBody(request);
-        if (request.getContentLength() < 0) {
-            context.setChunkedRequestBody();
-        }
-
-        this.helper.addIgnoredHeaders();
         try {
-            this.politenessCache.add(new URL(request.getRequestURL().toString()).getHost().toLowerCase());
+            MultiValueMap<String, String> headers = this.helper
+                    .buildZuulRequestHeaders(request);
+            MultiValueMap<String, String> params = this.helper
+                    .buildZuulRequestQueryParams(request);
+            String verb = request.getMethod().toUpperCase();
+            InputStream requestEntity = getRequestBody(request);
+            if (request.getContentLength() < 0) {
+                context.setChunkedRequestBody();
+            }
+
+            this.helper.addIgnoredHeaders();
+            if (waitNanos > 0L) {
+                counterService.increment("counter.requests.delayed");
+                orderHelper.remove(orderKey);
+                park(request, context.getResponse(), targetURL, client, verb, headers, params, requestEntity,
+                     waitNanos);
+                return null;
+            }
             CloseableHttpResponse response = forward(httpUtils.getHttpClient(), verb, request.getRequestURL()
                                                              .toString(), request,
                                                      headers, params, requestEntity);
@@ -206,10 +300,167 @@ public class SimpleFilter extends ZuulFilter {
         } catch (Exception ex) {
             orderHelper.remove(orderKey);
             throw new ZuulRuntimeException(ex);
+        } finally {
+            //Released also if building the request fails, delayed requests enter their slot later
+            if (entered) {
+                politenessCache.exit(host);
+            }
         }
         return null;
     }
 
+    private void setTooManyRequests(int delayForDomain) throws IOException {
+        //https://tools.ietf.org/html/rfc6585 - include retry header and html error
+        InputStream content = new ByteArrayInputStream(getTooManyRequestsHTML(delayForDomain).getBytes
+                (StandardCharsets.UTF_8));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, HttpUtils.formatRetryAfter(delayForDomain));
+        this.helper.setResponse(429, content, headers);
+    }
+
+    /**
+     * Holds the request back until its reserved slot opens without blocking the current
+     * thread. The request is forwarded on a forwarding thread and then dispatched to the
+     * filters again, which pass the response on to the post filters.
+     */
+    private void park(HttpServletRequest request, HttpServletResponse response, URL url, String client, String verb,
+                      MultiValueMap<String, String> headers, MultiValueMap<String, String> params,
+                      InputStream requestEntity, long waitNanos) {
+        String host = url.getHost().toLowerCase();
+        long maxWait = TimeUnit.MILLISECONDS.toNanos(politenessCache.getMaxWait(host));
+        long deadline = System.nanoTime() + (waitNanos == QUEUED ? 0L : waitNanos) + maxWait;
+        Parked parked = new Parked(request.startAsync(request, response), request, url);
+        //Answered by the container if its task gets lost, a request forwarded just before its
+        //deadline may still wait for the upstream host
+        parked.asyncContext.setTimeout(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) + politenessConfig
+                .getTick() + HttpUtils.CONNECT_TIMEOUT + HttpUtils.SOCKET_TIMEOUT);
+        parked.asyncContext.addListener(parked);
+        Runnable forward = () -> forwardDelayed(parked, verb, headers, params, requestEntity, deadline);
+        Runnable reject = () -> {
+            counterService.increment("counter.requests.denied.politeness");
+            rejectDelayed(parked);
+        };
+        if (waitNanos == QUEUED) {
+            log.debug(url + " queued for " + client);
+            requestScheduler.enqueue(host, client, forward, reject, deadline);
+            return;
+        }
+        log.debug(url + " delayed for " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+        requestScheduler.schedule(forward, reject, waitNanos);
+    }
+
+    private void forwardDelayed(Parked parked, String verb, MultiValueMap<String, String> headers,
+                                MultiValueMap<String, String> params, InputStream requestEntity, long deadline) {
+        if (parked.answered.get()) {
+            //Timed out meanwhile
+            return;
+        }
+        URL url = parked.url;
+        HttpServletRequest request = parked.request;
+        String host = url.getHost().toLowerCase();
+        if (!politenessCache.tryEnter(host)) {
+            long retryNanos = TimeUnit.MILLISECONDS.toNanos(politenessCache.getConcurrencyRetry());
+            if (System.nanoTime() + retryNanos - deadline < 0) {
+                //Wait for one of the requests in flight to complete
+                requestScheduler.schedule(() -> forwardDelayed(parked, verb, headers, params, requestEntity,
+                                                               deadline), () -> rejectDelayed(parked), retryNanos);
+                return;
+            }
+            counterService.increment("counter.requests.denied.concurrency");
+            log.debug(url + " blocked because of too many concurrent requests");
+            rejectDelayed(parked);
+            return;
+        }
+        parked.forwarding = true;
+        DelayedResponse delayed;
+        try {
+            ContentType contentType = null;
+            if (request.getContentType() != null) {
+                contentType = ContentType.parse(request.getContentType());
+            }
+            InputStreamEntity entity = new InputStreamEntity(requestEntity, request.getContentLength(), contentType);
+            HttpRequest httpRequest = httpUtils.buildHttpRequest(verb, url.toString(), entity, headers, params,
+                                                                 request);
+            log.debug("Requesting delayed: " + url);
+            CloseableHttpResponse zuulResponse = forwardRequest(httpUtils.getHttpClient(), httpUtils.getHttpHost(url),
+                                                                httpRequest);
+            try {
+                delayed = readDelayed(url, request, zuulResponse);
+            } catch (Exception ex) {
+                zuulResponse.close();
+                throw ex;
+            }
+        } catch (Exception ex) {
+            log.error("Delayed request to " + url + " failed", ex);
+            delayed = new DelayedResponse(ex);
+        } finally {
+            //The slot of a streamed response ends before its body is sent
+            politenessCache.exit(host);
+        }
+        dispatch(parked, delayed);
+    }
+
+    /**
+     * Reads the response of a delayed request on the forwarding thread, up to the forward
+     * buffer size. Larger bodies are not cached but streamed once the request is dispatched.
+     */
+    private DelayedResponse readDelayed(URL url, HttpServletRequest request, CloseableHttpResponse zuulResponse)
+            throws IOException {
+        int status = zuulResponse.getStatusLine().getStatusCode();
+        MultiValueMap<String, String> headers = revertHeaders(zuulResponse.getAllHeaders());
+        HttpEntity entity = zuulResponse.getEntity();
+        long limit = politenessConfig.getForwardBufferSize();
+        byte[] bytes = new byte[0];
+        if (entity != null && entity.getContentLength() <= limit) {
+            bytes = ByteStreams.toByteArray(ByteStreams.limit(entity.getContent(), limit + 1));
+        }
+        if (entity == null || (entity.getContentLength() <= limit && bytes.length <= limit)) {
+            zuulResponse.close();
+            this.pageCacheHandler.put(url, zuulResponse.getAllHeaders(), bytes, request);
+            return new DelayedResponse(status, headers, bytes);
+        }
+        log.debug("Streaming response of " + url + " larger than " + limit + " bytes");
+        return new DelayedResponse(status, headers, new SequenceInputStream(new ByteArrayInputStream(bytes), entity
+                .getContent()), zuulResponse);
+    }
+
+    private void rejectDelayed(Parked parked) {
+        int delayForDomain = politenessCache.getDelayForDomain(parked.url.getHost().toLowerCase());
+        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+        headers.set(HttpHeaders.RETRY_AFTER, HttpUtils.formatRetryAfter(delayForDomain));
+        dispatch(parked, new DelayedResponse(429, headers, getTooManyRequestsHTML(delayForDomain).getBytes
+                (StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Passes the outcome of a parked request on to the filters, only the first outcome
+     * counts.
+     */
+    private void dispatch(Parked parked, DelayedResponse delayed) {
+        if (!parked.answered.compareAndSet(false, true)) {
+            log.debug(parked.url + " already answered");
+            if (delayed.upstream != null) {
+                try {
+                    delayed.upstream.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close response of " + parked.url);
+                }
+            }
+            return;
+        }
+        parked.request.setAttribute(DELAYED_RESPONSE, delayed);
+        parked.asyncContext.dispatch();
+    }
+
+    /**
+     * Identifies the client sending the request, by the configured header or its remote host.
+     */
+    private String getClient(HttpServletRequest request) {
+        String header = politenessConfig.getFairness().getClientHeader();
+        String client = header == null ? null : request.getHeader(header);
+        return client == null ? request.getRemoteHost() : client;
+    }
+
     private CloseableHttpResponse forward(CloseableHttpClient httpclient, String verb,
                                           String uri, HttpServletRequest request, MultiValueMap<String, String> headers,
                                           MultiValueMap<String, String> params, InputStream requestEntity)
@@ -263,7 +514,20 @@ public class SimpleFilter extends ZuulFilter {
         } catch (Exception ex) {
             log.debug("Failed to start measuring time for " + httpHost);
         }
-        CloseableHttpResponse response = httpclient.execute(httpHost, httpRequest);
+        CloseableHttpResponse response;
+        try {
+            response = httpclient.execute(httpHost, httpRequest);
+        } catch (IOException ex) {
+            //Timeouts and refused connections are a sign of an overloaded host as well
+            try {
+                w.stop();
+                this.politenessCache.updateLatency(httpHost.getHostName(), w.getLastTaskTimeMillis(),
+                                                   AdaptiveDelayController.NO_RESPONSE);
+            } catch (Exception stopEx) {
+                log.debug("Failed to stop measuring time for " + httpHost);
+            }
+            throw ex;
+        }
         try {
             w.stop();
             this.politenessCache.updateLatency(httpHost.getHostName(), w.getLastTaskTimeMillis(), response
@@ -271,6 +535,9 @@ public class SimpleFilter extends ZuulFilter {
         } catch (Exception ex) {
             log.debug("Failed to stop measuring time for " + httpHost);
         }
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        this.politenessCache.backOff(httpHost.getHostName(), response.getStatusLine().getStatusCode(),
+                                     retryAfter == null ? null : retryAfter.getValue());
         return response;
     }
 
@@ -302,13 +569,106 @@ public class SimpleFilter extends ZuulFilter {
                                 multiValueMap);
     }
 
+    /**
+     * Request waiting for its slot. It is answered exactly once, by its response, its
+     * rejection or, if its task got lost, by the async timeout or error.
+     */
+    private final class Parked implements AsyncListener {
+        final AsyncContext asyncContext;
+        final HttpServletRequest request;
+        final URL url;
+        final AtomicBoolean answered = new AtomicBoolean();
+        volatile boolean forwarding;
+
+        Parked(AsyncContext asyncContext, HttpServletRequest request, URL url) {
+            this.asyncContext = asyncContext;
+            this.request = request;
+            this.url = url;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            expire();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            expire();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void expire() {
+            if (forwarding) {
+                counterService.increment("counter.requests.timeout");
+                log.debug(url + " timed out waiting for the upstream response");
+                dispatch(this, new DelayedResponse(504, new LinkedMultiValueMap<>(), getGatewayTimeoutHTML()
+                        .getBytes(StandardCharsets.UTF_8)));
+            } else {
+                counterService.increment("counter.requests.denied.politeness");
+                log.debug(url + " timed out waiting for its slot");
+                rejectDelayed(this);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a delayed request, passed on when the request is dispatched again.
+     */
+    private static final class DelayedResponse {
+        final int status;
+        final MultiValueMap<String, String> headers;
+        final InputStream body;
+        /** Upstream response a streamed body is read from, null if the body was read already */
+        final CloseableHttpResponse upstream;
+        final Exception error;
+
+        DelayedResponse(int status, MultiValueMap<String, String> headers, byte[] body) {
+            this(status, headers, new ByteArrayInputStream(body), null);
+        }
+
+        DelayedResponse(int status, MultiValueMap<String, String> headers, InputStream body,
+                        CloseableHttpResponse upstream) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.upstream = upstream;
+            this.error = null;
+        }
+
+        DelayedResponse(Exception error) {
+            this.status = 0;
+            this.headers = null;
+            this.body = null;
+            this.upstream = null;
+            this.error = error;
+        }
+    }
+
     private String getTooManyRequestsHTML(int delayForDomain) {
         return html(
                 head(
                         title("Too Many Requests")
                     ),
                 body(h1("Too Many Requests"), p("There must be a delay of " + delayForDomain + " milliseconds" +
-                                                        " between each request.")
+                                                        " between each request. Retry after " + HttpUtils
+                        .formatRetryAfter(delayForDomain) + " seconds.")
+                    )
+                   ).render();
+    }
+
+    private String getGatewayTimeoutHTML() {
+        return html(
+                head(
+                        title("Gateway Timeout")
+                    ),
+                body(h1("Gateway Timeout"), p("The host did not answer in time.")
                     )
                    ).render();
     }
@@ -3,9 +3,12 @@ package at.ac.wu.web.crawlers.thesis;
 import at.ac.wu.web.crawlers.thesis.cache.PageCache;
 import at.ac.wu.web.crawlers.thesis.canonicalization.URLCanonicalizationService;
 import at.ac.wu.web.crawlers.thesis.monitoring.CacheMetrics;
+import at.ac.wu.web.crawlers.thesis.monitoring.PolitenessMetrics;
 import at.ac.wu.web.crawlers.thesis.order.OrderHelper;
 import at.ac.wu.web.crawlers.thesis.politeness.DomainDelayCache;
 import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.RequestScheduler;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
@@ -105,8 +108,13 @@ public class ZuulProxyApplication {
 
     @Bean
     public CacheMetrics cacheMetrics(DomainDelayCache delayCache, PolitenessCache politenessCache, PageCache
-            pageCache) {
-        return new CacheMetrics(delayCache, politenessCache, pageCache);
+            pageCache, RobotstxtHandler robotsTxt) {
+        return new CacheMetrics(delayCache, politenessCache, pageCache, robotsTxt);
+    }
+
+    @Bean
+    public PolitenessMetrics politenessMetrics(PolitenessCache politenessCache, RequestScheduler requestScheduler) {
+        return new PolitenessMetrics(politenessCache, requestScheduler);
     }
 
     @Bean
@@ -1,7 +1,12 @@
 package at.ac.wu.web.crawlers.thesis.cache;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -9,6 +14,11 @@ import java.util.HashMap;
  */
 public class CacheEntry implements Serializable {
     private byte[] data;
+    /** Range of the body in data, entries read from the cache refer to the stored bytes */
+    private int dataOffset;
+    private int dataLength;
+    /** Key of the body in the body store while it was not loaded */
+    private String bodyKey;
     private String url;
     private long maxAge;
     private boolean noCache;
@@ -20,7 +30,7 @@ public class CacheEntry implements Serializable {
 
     public CacheEntry(byte[] data, String url, long maxAge, boolean noCache, boolean noStore, LocalDateTime expires,
                       LocalDateTime time, HashMap<String, String> headers, boolean gZipped, String contentType) {
-        this.data = data;
+        setData(data);
         this.url = url;
         this.maxAge = maxAge;
         this.noCache = noCache;
@@ -35,12 +45,69 @@ public class CacheEntry implements Serializable {
 
     }
 
+    /**
+     * @return the body, copied if this entry was read from the cache; use
+     * {@link #getDataStream()} to read it without copying
+     */
     public byte[] getData() {
-        return data;
+        if (data == null || (dataOffset == 0 && dataLength == data.length)) {
+            return data;
+        }
+        return Arrays.copyOfRange(data, dataOffset, dataOffset + dataLength);
     }
 
     public CacheEntry setData(byte[] data) {
+        return setData(data, 0, data == null ? 0 : data.length);
+    }
+
+    /**
+     * Sets the body to a range of the given array, which is not copied.
+     */
+    public CacheEntry setData(byte[] data, int offset, int length) {
+        this.bodyKey = null;
         this.data = data;
+        this.dataOffset = offset;
+        this.dataLength = length;
+        return this;
+    }
+
+    /**
+     * @return the body as stream over the array it is held in
+     */
+    @JsonIgnore
+    public InputStream getDataStream() {
+        return data == null ? new ByteArrayInputStream(new byte[0]) : new ByteArrayInputStream(data, dataOffset,
+                                                                                               dataLength);
+    }
+
+    /**
+     * @return the array holding the body at {@link #getDataOffset()}
+     */
+    @JsonIgnore
+    byte[] getRawData() {
+        return data;
+    }
+
+    @JsonIgnore
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    @JsonIgnore
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return key of the body in the body store if this entry was read without it, else null
+     */
+    @JsonIgnore
+    public String getBodyKey() {
+        return bodyKey;
+    }
+
+    CacheEntry setBodyKey(String bodyKey) {
+        this.bodyKey = bodyKey;
         return this;
     }
 
@@ -119,7 +186,7 @@ public class CacheEntry implements Serializable {
     @Override
     public String toString() {
         return "CacheEntry{" +
-                "data=" + data.length +
+                "data=" + dataLength +
                 ", url='" + url + '\'' +
                 ", maxAge=" + maxAge +
                 ", noCache=" + noCache +
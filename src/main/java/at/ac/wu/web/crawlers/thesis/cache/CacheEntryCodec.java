@@ -0,0 +1,176 @@
+package at.ac.wu.web.crawlers.thesis.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary format of the {@link CacheEntry} values of the {@link PageCache}:
+ * <pre>
+ * fixed header   magic (1 byte), version (1), flags (1), maxAge (8),
+ *                time seconds (8) and nanos (4), expires seconds (8) and nanos (4)
+ * header block   length (4), url, content type, number of headers (4), name and value of each
+ * body           length (4), raw bytes, or the key of the body if it is stored separately
+ * </pre>
+ * Strings are written as length (4, -1 for null) and UTF-8 bytes. Decoded entries refer to
+ * the body inside the stored bytes instead of copying it, or hold the key of the body in
+ * {@link CacheEntry#getBodyKey()}. Entries stored as JSON before the binary format was
+ * introduced are still read.
+ */
+public final class CacheEntryCodec {
+
+    static final byte MAGIC = (byte) 0xCE;
+    static final byte VERSION = 1;
+    private static final int FIXED_HEADER = 3 + 8 + 12 + 12;
+    private static final int NO_CACHE = 1;
+    private static final int NO_STORE = 1 << 1;
+    private static final int HAS_TIME = 1 << 2;
+    private static final int HAS_EXPIRES = 1 << 3;
+    private static final int BODY_KEY = 1 << 4;
+    private static final ObjectMapper LEGACY = new ObjectMapper().registerModule(new Jdk8Module()).registerModule(
+            new JavaTimeModule());
+
+    private CacheEntryCodec() {
+    }
+
+    public static byte[] encode(CacheEntry entry) {
+        return encode(entry, null);
+    }
+
+    /**
+     * @param bodyKey Key the body is stored under, which is written instead of the body, null
+     *                to write the body
+     */
+    public static byte[] encode(CacheEntry entry, String bodyKey) {
+        byte[] key = utf8(bodyKey);
+        byte[] url = utf8(entry.getUrl());
+        byte[] contentType = utf8(entry.getContentType());
+        Map<String, String> headers = entry.getHeaders() == null ? new HashMap<>() : entry.getHeaders();
+        byte[][] headerBytes = new byte[headers.size() * 2][];
+        int headerBlock = length(url) + length(contentType) + 4;
+        int i = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            headerBytes[i] = utf8(header.getKey());
+            headerBytes[i + 1] = utf8(header.getValue());
+            headerBlock += length(headerBytes[i]) + length(headerBytes[i + 1]);
+            i += 2;
+        }
+        int bodyLength = key != null ? 0 : entry.getDataLength();
+        ByteBuffer out = ByteBuffer.allocate(FIXED_HEADER + 4 + headerBlock + (key != null ? length(key) : 4 +
+                bodyLength));
+
+        int flags = (entry.isNoCache() ? NO_CACHE : 0) | (entry.isNoStore() ? NO_STORE : 0)
+                | (entry.getTime() != null ? HAS_TIME : 0) | (entry.getExpires() != null ? HAS_EXPIRES : 0)
+                | (key != null ? BODY_KEY : 0);
+        out.put(MAGIC).put(VERSION).put((byte) flags).putLong(entry.getMaxAge());
+        putTime(out, entry.getTime());
+        putTime(out, entry.getExpires());
+
+        out.putInt(headerBlock);
+        putString(out, url);
+        putString(out, contentType);
+        out.putInt(headers.size());
+        for (byte[] bytes : headerBytes) {
+            putString(out, bytes);
+        }
+
+        if (key != null) {
+            putString(out, key);
+            return out.array();
+        }
+        out.putInt(bodyLength);
+        if (bodyLength > 0) {
+            out.put(entry.getRawData(), entry.getDataOffset(), bodyLength);
+        }
+        return out.array();
+    }
+
+    public static CacheEntry decode(byte[] bytes) throws IOException {
+        if (bytes.length > 0 && bytes[0] == '{') {
+            return LEGACY.readValue(bytes, CacheEntry.class);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length < FIXED_HEADER || in.get() != MAGIC) {
+            throw new IOException("Not a cache entry");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IOException("Unknown cache entry version " + version);
+        }
+        int flags = in.get();
+        CacheEntry entry = new CacheEntry()
+                .setNoCache((flags & NO_CACHE) != 0)
+                .setNoStore((flags & NO_STORE) != 0)
+                .setMaxAge(in.getLong());
+        LocalDateTime time = getTime(in);
+        LocalDateTime expires = getTime(in);
+        entry.setTime((flags & HAS_TIME) != 0 ? time : null)
+                .setExpires((flags & HAS_EXPIRES) != 0 ? expires : null);
+
+        int bodyPosition = in.getInt();
+        bodyPosition += in.position();
+        entry.setUrl(getString(in)).setContentType(getString(in));
+        int count = in.getInt();
+        HashMap<String, String> headers = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            headers.put(getString(in), getString(in));
+        }
+        entry.setHeaders(headers);
+
+        //Fields added to the header block by later versions are skipped
+        in.position(bodyPosition);
+        if ((flags & BODY_KEY) != 0) {
+            return entry.setBodyKey(getString(in));
+        }
+        int bodyLength = in.getInt();
+        if (bodyLength < 0 || bodyLength > in.remaining()) {
+            throw new IOException("Truncated cache entry");
+        }
+        return entry.setData(bytes, in.position(), bodyLength);
+    }
+
+    private static void putTime(ByteBuffer out, LocalDateTime time) {
+        out.putLong(time == null ? 0 : time.toEpochSecond(ZoneOffset.UTC));
+        out.putInt(time == null ? 0 : time.getNano());
+    }
+
+    private static LocalDateTime getTime(ByteBuffer in) {
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -1,8 +1,5 @@
 package at.ac.wu.web.crawlers.thesis.cache;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.infinispan.Cache;
 import org.infinispan.configuration.cache.Configuration;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
@@ -15,6 +12,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -26,7 +28,19 @@ import java.util.concurrent.TimeUnit;
 @org.springframework.context.annotation.Configuration
 public class PageCache {
 
+    /** Lifespan of the records of a page */
+    static final long RECORD_LIFESPAN = TimeUnit.DAYS.toMillis(1);
+    /**
+     * Lifespan of a body after it was written. A body is written again when a record referring
+     * to it is added after more than {@link #RECORD_LIFESPAN}, so it outlives its records and
+     * expires once none was added for that long.
+     */
+    static final long BODY_LIFESPAN = 2 * RECORD_LIFESPAN;
     static Cache<CacheKey, byte[]> cache;
+    /** Page bodies stored once by their SHA-256 hash, shared by all records with the same body */
+    static Cache<String, byte[]> bodies;
+    /** Time each body was last written, so the lease of a body is checked without loading it */
+    static Cache<String, Long> bodyWrites;
     private static Logger log = LoggerFactory.getLogger(PageCache.class);
     private static PageCache INSTANCE;
 
@@ -37,32 +51,13 @@ public class PageCache {
         return cache();
     }
 
+    public Cache<String, byte[]> getBodyCache() {
+        cache();
+        return bodies;
+    }
+
     private Cache<CacheKey, byte[]> cache() {
         if (cache == null) {
-            Configuration configuration = new ConfigurationBuilder().persistence()
-                    .passivation(false)
-                    .addSingleFileStore()
-                    .preload(true)
-                    .shared(false)
-                    .fetchPersistentState(true)
-                    .ignoreModifications(false)
-                    .purgeOnStartup(false)
-                    .location(cacheProperties.getDirectory())
-                    .async()
-                    .enabled(true)
-                    .threadPoolSize(cacheProperties.getThreads())
-                    .memory()
-                    .size(cacheProperties.getMemory())
-                    .evictionType(EvictionType.MEMORY)
-                    .expiration()
-                    .lifespan(1, TimeUnit.DAYS)
-                    .storeAsBinary()
-                    .enable()
-                    .jmxStatistics()
-                    .enable()
-                    .build();
-
-
             GlobalConfiguration globalConfiguration = new GlobalConfigurationBuilder()
                     .globalJmxStatistics()
                     .enable()
@@ -70,11 +65,43 @@ public class PageCache {
                     .jmxDomain(cacheProperties.getJmxDomain())
                     .allowDuplicateDomains(true)
                     .build();
-            this.cache = new DefaultCacheManager(globalConfiguration, configuration).getCache("page-cache");
+            DefaultCacheManager manager = new DefaultCacheManager(globalConfiguration, configuration(
+                    cacheProperties.getRecordMemory(), RECORD_LIFESPAN));
+            manager.defineConfiguration("page-bodies", configuration(cacheProperties.getMemory(), BODY_LIFESPAN));
+            manager.defineConfiguration("page-body-writes", configuration(cacheProperties.getRecordMemory(),
+                                                                          BODY_LIFESPAN));
+            this.bodies = manager.getCache("page-bodies");
+            this.bodyWrites = manager.getCache("page-body-writes");
+            this.cache = manager.getCache("page-cache");
         }
         return this.cache;
     }
 
+    private Configuration configuration(long memory, long lifespan) {
+        return new ConfigurationBuilder().persistence()
+                .passivation(false)
+                .addSingleFileStore()
+                .preload(true)
+                .shared(false)
+                .fetchPersistentState(true)
+                .ignoreModifications(false)
+                .purgeOnStartup(false)
+                .location(cacheProperties.getDirectory())
+                .async()
+                .enabled(true)
+                .threadPoolSize(cacheProperties.getThreads())
+                .memory()
+                .size(memory)
+                .evictionType(EvictionType.MEMORY)
+                .expiration()
+                .lifespan(lifespan, TimeUnit.MILLISECONDS)
+                .storeAsBinary()
+                .enable()
+                .jmxStatistics()
+                .enable()
+                .build();
+    }
+
     /**
      * Puts the given entry into the cache.
      *
@@ -82,18 +109,51 @@ public class PageCache {
      * @param entry Entry to put into the cache
      */
     public void addPage(CacheKey key, CacheEntry entry) {
+        addPage(Collections.singletonList(key), entry);
+    }
+
+    /**
+     * Puts the given entry into the cache under several keys. The body is stored once, also if
+     * other pages have the same body, and the keys only refer to it.
+     *
+     * @param keys  Keys the entry is found under
+     * @param entry Entry to put into the cache
+     */
+    public void addPage(Collection<CacheKey> keys, CacheEntry entry) {
         try {
-            byte[] bytes = mapper().writeValueAsBytes(entry);
-            cache().put(key, bytes);
-            log.debug(key + " added to cache " + entry);
+            String bodyKey = addBody(entry);
+            byte[] record = CacheEntryCodec.encode(entry, bodyKey);
+            for (CacheKey key : keys) {
+                cache().put(key, record);
+                log.debug(key + " added to cache " + entry);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
+    }
 
+    private String addBody(CacheEntry entry) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(entry.getRawData(), entry.getDataOffset(), entry.getDataLength());
+        String bodyKey = Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+        cache();
+        Long written = bodyWrites.get(bodyKey);
+        long now = currentTimeMillis();
+        //Written again only if it could expire before the records added now
+        if (written == null || written + BODY_LIFESPAN - RECORD_LIFESPAN < now) {
+            bodies.put(bodyKey, entry.getData(), BODY_LIFESPAN, TimeUnit.MILLISECONDS);
+            bodyWrites.put(bodyKey, now, BODY_LIFESPAN, TimeUnit.MILLISECONDS);
+        } else {
+            log.debug("Body of " + entry.getUrl() + " already stored");
+        }
+        return bodyKey;
     }
 
-    private ObjectMapper mapper() {
-        return new ObjectMapper().registerModule(new Jdk8Module()).registerModule(new JavaTimeModule());
+    /**
+     * @return current time in milliseconds, the time bodies are written at
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
     }
 
     /**
@@ -119,8 +179,20 @@ public class PageCache {
         log.debug("Lookup " + key + " in cache");
         try {
             if (bytes != null) {
+                CacheEntry entry = CacheEntryCodec.decode(bytes);
+                if (entry.getBodyKey() != null) {
+                    byte[] body = getBodyCache().get(entry.getBodyKey());
+                    if (body == null) {
+                        //Should not happen as bodies outlive their records, the record is useless without
+                        log.debug("Body of " + key + " is missing");
+                        cache().remove(key);
+                        bodyWrites.remove(entry.getBodyKey());
+                        return null;
+                    }
+                    entry.setData(body);
+                }
                 log.debug("Entry for " + key + " found");
-                return mapper().readValue(bytes, CacheEntry.class);
+                return entry;
             }
             log.debug("Entry for " + key + " not found");
         } catch (Exception e) {
@@ -14,7 +14,10 @@ public class PageCacheConfiguration {
 
     private String directory = System.getProperty("java.io.tmpdir");
     private String jmxDomain = "pageCache";
+    /** Memory for page bodies, each stored once */
     private long memory = 1_000_000L;
+    /** Memory for the records referring to the bodies, one per URL and content type */
+    private long recordMemory = 250_000L;
     private int threads = 4;
 
     public String getDirectory() {
@@ -44,6 +47,15 @@ public class PageCacheConfiguration {
         return this;
     }
 
+    public long getRecordMemory() {
+        return recordMemory;
+    }
+
+    public PageCacheConfiguration setRecordMemory(long recordMemory) {
+        this.recordMemory = recordMemory;
+        return this;
+    }
+
     public int getThreads() {
         return threads;
     }
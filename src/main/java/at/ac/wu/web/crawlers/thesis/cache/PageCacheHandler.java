@@ -13,8 +13,11 @@ import java.net.URL;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.apache.http.HttpHeaders.*;
 
@@ -85,17 +88,20 @@ public class PageCacheHandler {
             //If a specific content-type was requested
             if (contentTypeRequested != null && !contentTypeRequested.isEmpty()) {
                 //Put with Content-Type of response
-                cache.addPage(new CacheKey(urlString, contentTypeRequested), cacheEntry);
+                List<CacheKey> keys = new ArrayList<>();
+                keys.add(new CacheKey(urlString, contentTypeRequested));
                 //If there is no wildcard entry, put one into the cache
                 CacheKey wildcardKey = new CacheKey(urlString, "*/*");
                 if (!cache.exists(wildcardKey)) {
-                    cache.addPage(wildcardKey, cacheEntry);
+                    keys.add(wildcardKey);
                 }
                 //If there is no url entry, put one into the cache
                 CacheKey simpleKey = new CacheKey(urlString);
                 if (!cache.exists(simpleKey)) {
-                    cache.addPage(simpleKey, cacheEntry);
+                    keys.add(simpleKey);
                 }
+                //The body is stored once for all keys
+                cache.addPage(keys, cacheEntry);
             } else {
                 //If no content-type was given than put in cache:
                 //1. Content-Type of response
@@ -104,9 +110,8 @@ public class PageCacheHandler {
                 //Existence check is not needed here because a request already cached does not get this far
                 //and wildcard and pure url entries are more relevant coming from requests without Content-Type
                 //because server Content-Type defaults may differ
-                cache.addPage(new CacheKey(urlString, cacheEntry.getContentType()), cacheEntry);
-                cache.addPage(new CacheKey(urlString), cacheEntry);
-                cache.addPage(new CacheKey(urlString, "*/*"), cacheEntry);
+                cache.addPage(Arrays.asList(new CacheKey(urlString, cacheEntry.getContentType()),
+                                            new CacheKey(urlString), new CacheKey(urlString, "*/*")), cacheEntry);
             }
         }
     }
@@ -8,6 +8,8 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
@@ -33,6 +35,7 @@ import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -47,6 +50,14 @@ import static org.springframework.cloud.netflix.zuul.filters.support.FilterConst
 @Configuration
 public class HttpUtils {
 
+    /**
+     * Connect timeout in milliseconds of proxied requests.
+     */
+    public static final int CONNECT_TIMEOUT = 100_000;
+    /**
+     * Read timeout in milliseconds of proxied requests.
+     */
+    public static final int SOCKET_TIMEOUT = 100_000;
     private final Timer connectionManagerTimer = new Timer(
             "HttpUtils.connectionManagerTimer", true);
     private PoolingHttpClientConnectionManager connectionManager;
@@ -68,8 +79,8 @@ public class HttpUtils {
 
     public CloseableHttpClient newClient() {
         final RequestConfig requestConfig = RequestConfig.custom()
-                .setSocketTimeout(100_000)
-                .setConnectTimeout(100_000)
+                .setSocketTimeout(SOCKET_TIMEOUT)
+                .setConnectTimeout(CONNECT_TIMEOUT)
                 .setCookieSpec(CookieSpecs.IGNORE_COOKIES)
                 .build();
 
@@ -134,6 +145,108 @@ public class HttpUtils {
         this.httpClient = newClient();
     }
 
+    /**
+     * Creates a request context with its own connect and read timeout, for requests the proxy
+     * sends itself and that should fail faster than forwarded ones.
+     *
+     * @param timeoutMillis Connect and read timeout in milliseconds
+     * @return context to execute the request with
+     */
+    public static HttpClientContext timeoutContext(int timeoutMillis) {
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom()
+                                         .setConnectTimeout(timeoutMillis)
+                                         .setSocketTimeout(timeoutMillis)
+                                         .setCookieSpec(CookieSpecs.IGNORE_COOKIES)
+                                         .build());
+        return context;
+    }
+
+    /**
+     * Parses the value of a Retry-After header, given either in delta-seconds or as HTTP-date.
+     *
+     * @param value     Header value, may be null
+     * @param nowMillis Current time in milliseconds since the epoch
+     * @return milliseconds to wait, -1 if the value is missing or invalid
+     */
+    public static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        value = value.trim();
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        Date date = DateUtils.parseDate(value);
+        if (date == null) {
+            return -1;
+        }
+        return Math.max(0L, date.getTime() - nowMillis);
+    }
+
+    /**
+     * Formats a delay as value of a Retry-After header, which is given in whole seconds
+     * (RFC 7231, section 7.1.3). Partial seconds are rounded up, so clients never retry early.
+     *
+     * @param millis Delay in milliseconds
+     * @return delay in seconds
+     */
+    public static String formatRetryAfter(long millis) {
+        return Long.toString(TimeUnit.MILLISECONDS.toSeconds(Math.max(0L, millis) + 999));
+    }
+
+    /**
+     * Determines how long a response may be used from Cache-Control (s-maxage, max-age,
+     * no-cache, no-store) or else the Expires header. Expires is taken relative to the Date
+     * header, so a server clock differing from ours does not matter.
+     *
+     * @param cacheControl Cache-Control header value, may be null
+     * @param expires      Expires header value, may be null
+     * @param date         Date header value, may be null to use the current time
+     * @param nowMillis    Current time in milliseconds since the epoch
+     * @return milliseconds the response stays fresh, -1 if the headers do not say
+     */
+    public static long parseFreshness(String cacheControl, String expires, String date, long nowMillis) {
+        if (cacheControl != null) {
+            long maxAge = -1;
+            long sMaxAge = -1;
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return 0;
+                }
+                try {
+                    if (directive.startsWith("s-maxage=")) {
+                        sMaxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(9).trim()));
+                    } else if (directive.startsWith("max-age=")) {
+                        maxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8).trim()));
+                    }
+                } catch (NumberFormatException ex) {
+                    //Ignore invalid directives
+                }
+            }
+            //s-maxage applies to shared caches like this proxy and takes precedence
+            if (sMaxAge >= 0) {
+                return sMaxAge;
+            }
+            if (maxAge >= 0) {
+                return maxAge;
+            }
+        }
+        if (expires != null) {
+            Date expiresDate = DateUtils.parseDate(expires.trim());
+            Date responseDate = date == null ? null : DateUtils.parseDate(date.trim());
+            //Invalid dates like "0" mean already expired
+            return expiresDate == null ? 0 : Math.max(0L, expiresDate.getTime() - (responseDate == null ?
+                    nowMillis : responseDate.getTime()));
+        }
+        return -1;
+    }
+
     public HttpHost getHttpHost(URL host) {
         HttpHost httpHost = new HttpHost(host.getHost(), host.getPort(), host.getProtocol());
         return httpHost;
@@ -3,6 +3,8 @@ package at.ac.wu.web.crawlers.thesis.monitoring;
 import at.ac.wu.web.crawlers.thesis.cache.PageCache;
 import at.ac.wu.web.crawlers.thesis.politeness.DomainDelayCache;
 import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.infinispan.stats.Stats;
 import org.springframework.boot.actuate.endpoint.PublicMetrics;
 import org.springframework.boot.actuate.metrics.Metric;
@@ -19,6 +21,7 @@ import java.util.HashSet;
  * <li>retrievals</li>
  * <li>hitratio</li>
  * <li>memory</li>
+ * <li>evictions (robots cache)</li>
  * </ul>
  * Created by Patrick on 08.08.2017.
  */
@@ -28,23 +31,39 @@ public class CacheMetrics implements PublicMetrics {
     private DomainDelayCache delayCache;
     private PolitenessCache politenessCache;
     private PageCache pageCache;
+    private RobotstxtHandler robotsTxt;
 
-    public CacheMetrics(DomainDelayCache delayCache, PolitenessCache politenessCache, PageCache pageCache) {
+    public CacheMetrics(DomainDelayCache delayCache, PolitenessCache politenessCache, PageCache pageCache,
+                        RobotstxtHandler robotsTxt) {
         this.delayCache = delayCache;
         this.politenessCache = politenessCache;
         this.pageCache = pageCache;
+        this.robotsTxt = robotsTxt;
     }
 
     @Override
     public Collection<Metric<?>> metrics() {
         Collection<Metric<?>> metrics = new HashSet<>();
         addMetric(metrics, delayCache.getCache().getName(), this.delayCache.getCache().getAdvancedCache().getStats());
-        addMetric(metrics, politenessCache.getCache().getName(), this.politenessCache.getCache().getAdvancedCache()
-                .getStats());
+        metrics.add(new Metric<>("cache.politeness-cache.size", this.politenessCache.size()));
         addMetric(metrics, pageCache.getCache().getName(), this.pageCache.getCache().getAdvancedCache().getStats());
+        addMetric(metrics, pageCache.getBodyCache().getName(), this.pageCache.getBodyCache().getAdvancedCache()
+                .getStats());
+        addMetric(metrics, "robots-cache", this.robotsTxt.getStats(), this.robotsTxt.size());
         return metrics;
     }
 
+    private void addMetric(Collection<Metric<?>> metrics, String cacheName, CacheStats stats, long size) {
+        String prefix = "cache." + cacheName + ".";
+        metrics.add(new Metric<>(prefix + "hits", stats.hitCount()));
+        metrics.add(new Metric<>(prefix + "size", size));
+        metrics.add(new Metric<>(prefix + "misses", stats.missCount()));
+        metrics.add(new Metric<>(prefix + "retrievals", stats.requestCount()));
+        metrics.add(new Metric<>(prefix + "hitratio", stats.hitRate()));
+        metrics.add(new Metric<>(prefix + "evictions", stats.evictionCount()));
+        metrics.add(new Metric<>(prefix + "evictions.weight", stats.evictionWeight()));
+    }
+
     private void addMetric(Collection<Metric<?>> metrics, String cacheName, Stats stats) {
         String prefix = "cache." + cacheName + ".";
         metrics.add(new Metric<>(prefix + "hits", stats.getHits()));
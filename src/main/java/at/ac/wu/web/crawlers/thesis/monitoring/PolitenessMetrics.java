@@ -0,0 +1,62 @@
+package at.ac.wu.web.crawlers.thesis.monitoring;
+
+import at.ac.wu.web.crawlers.thesis.politeness.FairShare;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.RequestScheduler;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * A {@link PublicMetrics} implementation that provides politeness statistics such as:
+ * <ul>
+ * <li>requests in flight and the number of hosts they are sent to</li>
+ * <li>requests waiting for their delay to pass</li>
+ * <li>slots served and denied for all clients and how long they waited, if fairness is enabled</li>
+ * </ul>
+ */
+public class PolitenessMetrics implements PublicMetrics {
+
+    private PolitenessCache politenessCache;
+    private RequestScheduler requestScheduler;
+
+    public PolitenessMetrics(PolitenessCache politenessCache, RequestScheduler requestScheduler) {
+        this.politenessCache = politenessCache;
+        this.requestScheduler = requestScheduler;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> metrics = new HashSet<>();
+        //Only aggregates, a gauge per host would add a metric name for every host ever requested
+        Map<String, Integer> inFlight = politenessCache.getInFlight();
+        int total = 0;
+        for (int requests : inFlight.values()) {
+            total += requests;
+        }
+        metrics.add(new Metric<>("politeness.inflight.total", total));
+        metrics.add(new Metric<>("politeness.inflight.hosts", inFlight.size()));
+        metrics.add(new Metric<>("politeness.waiting", requestScheduler.getWaiting()));
+        //Client ids are sent by the clients, so they are not part of the metric names either
+        Collection<FairShare.ClientStats> clients = politenessCache.getClientStats().values();
+        long served = 0;
+        long denied = 0;
+        long waited = 0;
+        long maxWait = 0;
+        for (FairShare.ClientStats stats : clients) {
+            served += stats.getServed();
+            denied += stats.getDenied();
+            waited += stats.getAverageWait() * stats.getServed();
+            maxWait = Math.max(maxWait, stats.getMaxWait());
+        }
+        metrics.add(new Metric<>("politeness.clients", clients.size()));
+        metrics.add(new Metric<>("politeness.clients.served", served));
+        metrics.add(new Metric<>("politeness.clients.denied", denied));
+        metrics.add(new Metric<>("politeness.clients.wait.avg", served == 0 ? 0L : waited / served));
+        metrics.add(new Metric<>("politeness.clients.wait.max", maxWait));
+        return metrics;
+    }
+}
@@ -0,0 +1,78 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+/**
+ * Adapts the delay of a domain to its response behaviour (AIMD on an EWMA of the latency).
+ * <ul>
+ * <li>429, 503, timeouts or a latency rising above the average multiply the delay
+ * by the backoff factor.</li>
+ * <li>Healthy responses decrease the delay step by step, but never below the floor or
+ * a multiple of the average latency.</li>
+ * </ul>
+ */
+public class AdaptiveDelayController {
+
+    /**
+     * Status code to pass to {@link #update(PolitenessEntry, int, long, int)} for requests
+     * which failed without a response, e.g. because of a timeout.
+     */
+    public static final int NO_RESPONSE = -1;
+    private final PolitenessConfiguration.Adaptive config;
+
+    public AdaptiveDelayController(PolitenessConfiguration.Adaptive config) {
+        this.config = config;
+    }
+
+    /**
+     * Updates latency and adaptive delay of the given entry with a new observation.
+     *
+     * @param entry      Entry of the domain, the adaptive delay starts with its delay
+     * @param floor      Lowest delay allowed for the domain
+     * @param timeMillis Duration of the request
+     * @param statusCode Status code of the response or {@link #NO_RESPONSE}
+     * @return true if latency or adaptive delay of the entry changed
+     */
+    public boolean update(PolitenessEntry entry, int floor, long timeMillis, int statusCode) {
+        int previousLatency = entry.getLatency();
+        int latency = previousLatency == 0 ? (int) timeMillis : (int) Math.round(
+                config.getSmoothing() * timeMillis + (1 - config.getSmoothing()) * previousLatency);
+        int current = entry.getAdaptive_delay() > 0 ? entry.getAdaptive_delay() : entry.getDelay();
+        int delay;
+        if (isOverloaded(previousLatency, timeMillis, statusCode)) {
+            delay = (int) Math.min(config.getMaxDelay(), Math.max(current, floor) * config.getBackoffFactor());
+        } else if (statusCode < 400) {
+            int target = (int) Math.max(floor, latency * config.getLatencyMultiplier());
+            delay = current > target ? Math.max(target, current - config.getDecreaseStep()) : target;
+        } else {
+            //Other client or server errors say nothing about the load of the domain
+            delay = current;
+        }
+        delay = Math.max(floor, Math.min(config.getMaxDelay(), delay));
+        if (delay == entry.getAdaptive_delay() && latency == previousLatency) {
+            return false;
+        }
+        entry.setAdaptive_delay(delay);
+        entry.setLatency(latency);
+        return true;
+    }
+
+    /**
+     * Lowest delay the controller may set for the given entry. Delays configured for the
+     * domain or requested by its robots.txt are never undercut.
+     *
+     * @param entry Entry of the domain, may be null
+     * @return floor in milliseconds
+     */
+    public int getFloor(PolitenessEntry entry) {
+        if (entry == null) {
+            return config.getMinDelay();
+        }
+        return Math.max(config.getMinDelay(), Math.max(entry.getConfigured_delay(), entry.getRobotstxt_delay()));
+    }
+
+    private boolean isOverloaded(int previousLatency, long timeMillis, int statusCode) {
+        if (statusCode == NO_RESPONSE || statusCode == 429 || statusCode == 503) {
+            return true;
+        }
+        return previousLatency > 0 && timeMillis > previousLatency * config.getLatencyFactor();
+    }
+}
@@ -0,0 +1,86 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Latency and adaptive delay of each domain with an entry, or of each politeness group
+ * otherwise, kept in memory and updated atomically by the {@link AdaptiveDelayController}.
+ * <p>
+ * The latency changes with almost every response, so it is never written to the
+ * {@link DomainDelayCache}. A new adaptive delay is passed on to be stored only if the
+ * domain already has an entry; no entries are created for other domains.
+ */
+public class AdaptiveDelays {
+
+    private final AdaptiveDelayController controller;
+    private final int defaultDelay;
+    private final Consumer<PolitenessEntry> store;
+    private final Cache<String, PolitenessEntry> states;
+
+    /**
+     * @param controller   Controller computing the delays
+     * @param defaultDelay Delay of domains without entry
+     * @param idleTimeout  Time after which the state of a domain without requests is dropped
+     * @param unit         Unit of the idle timeout
+     * @param store        Receives the domain, adaptive delay and latency of an entry whose
+     *                     adaptive delay changed
+     */
+    public AdaptiveDelays(AdaptiveDelayController controller, int defaultDelay, long idleTimeout, TimeUnit unit,
+                          Consumer<PolitenessEntry> store) {
+        this.controller = controller;
+        this.defaultDelay = defaultDelay;
+        this.store = store;
+        this.states = Caffeine.newBuilder().expireAfterAccess(idleTimeout, unit).build();
+    }
+
+    /**
+     * Updates the state of a domain with a new observation.
+     *
+     * @param group      Politeness group of the domain
+     * @param entry      Entry of the domain or its group, may be null
+     * @param timeMillis Duration of the request
+     * @param statusCode Status code of the response or {@link AdaptiveDelayController#NO_RESPONSE}
+     * @return true if the adaptive delay changed
+     */
+    public boolean update(String group, PolitenessEntry entry, long timeMillis, int statusCode) {
+        String key = entry == null ? group : entry.getDomain();
+        int floor = controller.getFloor(entry);
+        boolean[] changed = {false};
+        PolitenessEntry state = states.asMap().compute(key, (k, previous) -> {
+            PolitenessEntry next = new PolitenessEntry(k, entry == null ? defaultDelay : entry.getDelay(), 0, 0);
+            if (previous != null) {
+                next.setAdaptive_delay(previous.getAdaptive_delay()).setLatency(previous.getLatency());
+            } else if (entry != null) {
+                //Continue with the delay stored before a restart or by another instance
+                next.setAdaptive_delay(entry.getAdaptive_delay());
+            }
+            int before = next.getAdaptive_delay();
+            controller.update(next, floor, timeMillis, statusCode);
+            changed[0] = next.getAdaptive_delay() != before;
+            return next;
+        });
+        if (changed[0] && entry != null) {
+            //A concurrent update may have computed a newer delay meanwhile
+            PolitenessEntry latest = states.getIfPresent(key);
+            store.accept(latest != null ? latest : state);
+        }
+        return changed[0];
+    }
+
+    /**
+     * @param group Politeness group of the domain
+     * @param entry Entry of the domain or its group, may be null
+     * @return adaptive delay in milliseconds, 0 if none was computed yet
+     */
+    public int getAdaptiveDelay(String group, PolitenessEntry entry) {
+        PolitenessEntry state = states.getIfPresent(entry == null ? group : entry.getDomain());
+        if (state != null) {
+            return state.getAdaptive_delay();
+        }
+        return entry == null ? 0 : entry.getAdaptive_delay();
+    }
+}
@@ -39,9 +39,20 @@ public class DomainDelayCache implements InitializingBean {
     @Autowired
     Environment environment;
 
+    @Autowired
+    PolitenessGroups groups;
+
+    @Autowired
+    PolitenessCluster cluster;
+
     private Cache<String, PolitenessEntry> cache() {
         if (cache == null) {
-            Configuration configuration = new ConfigurationBuilder().persistence()
+            ConfigurationBuilder builder = new ConfigurationBuilder();
+            if (cluster.isEnabled()) {
+                //Delays are shared, the file store stays local to every node
+                builder.clustering().cacheMode(cluster.getCacheMode());
+            }
+            Configuration configuration = builder.persistence()
                     .passivation(false)
                     .addSingleFileStore()
                     .preload(true)
@@ -64,7 +75,11 @@ public class DomainDelayCache implements InitializingBean {
                     .enable()
                     .build();
 
-
+            if (cluster.isEnabled()) {
+                cluster.getCacheManager().defineConfiguration("delay-cache", configuration);
+                this.cache = cluster.getCacheManager().getCache("delay-cache");
+                return this.cache;
+            }
             GlobalConfiguration globalConfiguration = new GlobalConfigurationBuilder()
                     .globalJmxStatistics()
                     .enable()
@@ -93,13 +108,27 @@ public class DomainDelayCache implements InitializingBean {
                                       + entry.getDelay() + "configured bigger than " + cache_entry.getDelay());
                 } else if (entry.getConfigured_delay() != cache_entry.getConfigured_delay()) {
                     //Merge entries to behold configured delay in cache (just for monitoring)
-                    this.putEntry(new PolitenessEntry(entry.getDomain(), cache_entry.getDelay(), cache_entry
-                            .getRobotstxt_delay(), entry.getConfigured_delay()));
+                    this.putEntry(copyOptions(entry, new PolitenessEntry(entry.getDomain(), cache_entry.getDelay(),
+                                                                         cache_entry.getRobotstxt_delay(), entry
+                                                                                 .getConfigured_delay())));
+                } else if (!hasSameOptions(entry, cache_entry)) {
+                    this.putEntry(copyOptions(entry, cache_entry));
                 }
             }
         }
     }
 
+    //Options configured per domain besides the delay
+    static PolitenessEntry copyOptions(PolitenessEntry from, PolitenessEntry to) {
+        return to.setMaxWait(from.getMaxWait()).setMaxConcurrent(from.getMaxConcurrent()).setPolicy(from
+                .getPolicy()).setRate(from.getRate()).setBurst(from.getBurst());
+    }
+
+    private static boolean hasSameOptions(PolitenessEntry a, PolitenessEntry b) {
+        return a.getMaxWait() == b.getMaxWait() && a.getMaxConcurrent() == b.getMaxConcurrent() && a.getPolicy() ==
+                b.getPolicy() && a.getRate() == b.getRate() && a.getBurst() == b.getBurst();
+    }
+
     public Cache<String, PolitenessEntry> getCache() {
         return this.cache();
     }
@@ -108,10 +137,41 @@ public class DomainDelayCache implements InitializingBean {
         return this.cache().get(key);
     }
 
+    /**
+     * Returns the entry of the given host. If there is none, the entry of the politeness
+     * group of the host is returned (see {@link PolitenessGroups}).
+     *
+     * @param host Host
+     * @return entry or null if neither host nor group have one
+     */
+    public PolitenessEntry getEntryForHost(final String host) {
+        PolitenessEntry entry = this.cache().get(host);
+        if (entry == null) {
+            String group = groups.groupOf(host);
+            if (!group.equals(host)) {
+                entry = this.cache().get(group);
+            }
+        }
+        return entry;
+    }
+
     public void putEntry(final PolitenessEntry entry) {
         this.cache().put(entry.getDomain(), entry);
     }
 
+    /**
+     * Stores the adaptive delay and latency of the given state in the existing entry of its
+     * domain, in one atomic step. No entry is created if the domain has none.
+     *
+     * @param state Domain, adaptive delay and latency
+     */
+    public void updateAdaptiveDelay(PolitenessEntry state) {
+        int delay = state.getAdaptive_delay();
+        int latency = state.getLatency();
+        this.cache().computeIfPresent(state.getDomain(), (domain, entry) -> entry.setAdaptive_delay(delay)
+                .setLatency(latency));
+    }
+
     public List<PolitenessEntry> getEntries() {
         if (cache().size() > 2000) {
             return null;
@@ -120,14 +180,28 @@ public class DomainDelayCache implements InitializingBean {
     }
 
     public void updateRobotsDelay(String domain, Double crawlDelay) {
+        //Crawl-delay is given in seconds, delays are kept in milliseconds
+        int delay = (int) Math.min(Integer.MAX_VALUE, Math.round(crawlDelay * 1000));
+        updateRobotsDelay(domain, delay);
+        //The crawl-delay of any member applies to the whole politeness group
+        String group = groups.groupOf(domain);
+        if (!group.equals(domain)) {
+            PolitenessEntry groupEntry = this.cache().get(group);
+            if (groupEntry == null || groupEntry.getRobotstxt_delay() < delay) {
+                updateRobotsDelay(group, delay);
+            }
+        }
+    }
+
+    private void updateRobotsDelay(String domain, int crawlDelay) {
         PolitenessEntry entry = this.cache().get(domain);
         if (entry == null) {
-            entry = new PolitenessEntry(domain, crawlDelay.intValue(), crawlDelay.intValue(), 0);
+            entry = new PolitenessEntry(domain, crawlDelay, crawlDelay, 0);
             log.debug("New entry originated from robots.txt " + entry);
         } else {
-            entry.setRobotstxt_delay(crawlDelay.intValue());
-            if (entry.getDelay() < crawlDelay.intValue()) {
-                entry.setDelay(crawlDelay.intValue());
+            entry.setRobotstxt_delay(crawlDelay);
+            if (entry.getDelay() < crawlDelay) {
+                entry.setDelay(crawlDelay);
             }
             log.debug("Updated entry originated from robots.txt " + entry);
         }
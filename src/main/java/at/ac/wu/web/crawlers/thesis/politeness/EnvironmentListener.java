@@ -6,12 +6,20 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Created by Patrick on 15.08.2017.
  */
 @Component
 public class EnvironmentListener implements ApplicationListener<EnvironmentChangeEvent> {
 
+    /**
+     * Per-domain settings, politeness.domains[n].option
+     */
+    private static final Pattern DOMAIN_PROPERTY = Pattern.compile("politeness\\.domains\\[\\d+\\]\\.([a-z-]+)");
+
     @Autowired
     Environment environment;
 
@@ -21,17 +29,41 @@ public class EnvironmentListener implements ApplicationListener<EnvironmentChang
     @Override
     public void onApplicationEvent(EnvironmentChangeEvent event) {
         for (String property : event.getKeys()) {
-            if (property.endsWith("delay")) {
-                PolitenessEntry cache_entry = delayCache.getEntry(environment.getProperty(getPropertyKey(property,
-                                                                                                         "domain")));
+            Matcher matcher = DOMAIN_PROPERTY.matcher(property);
+            if (!matcher.matches()) {
+                //Global settings like politeness.max-wait are rebound to the PolitenessConfiguration
+                continue;
+            }
+            String option = matcher.group(1);
+            String value = environment.getProperty(property);
+            String domain = environment.getProperty(getPropertyKey(property, "domain"));
+            if (value == null || domain == null) {
+                continue;
+            }
+            PolitenessEntry cache_entry = delayCache.getEntry(domain);
+            if (option.equals("delay")) {
                 if (cache_entry != null) {
-                    int delay = Integer.parseInt(environment.getProperty(property));
-                    delayCache.putEntry(new PolitenessEntry(cache_entry.getDomain(), delay, cache_entry
-                            .getRobotstxt_delay(), delay));
+                    int delay = Integer.parseInt(value);
+                    delayCache.putEntry(DomainDelayCache.copyOptions(cache_entry, new PolitenessEntry(cache_entry
+                            .getDomain(), delay, cache_entry.getRobotstxt_delay(), delay)));
+                }
+            } else if (PropertyExtractionHelper.OPTIONS.contains(option)) {
+                if (cache_entry != null) {
+                    delayCache.putEntry(PropertyExtractionHelper.setOption(cache_entry, option, value));
+                }
+            } else if (option.equals("domain") && cache_entry == null) {
+                String delayValue = environment.getProperty(getPropertyKey(property, "delay"));
+                if (delayValue != null) {
+                    int delay = Integer.parseInt(delayValue);
+                    PolitenessEntry entry = new PolitenessEntry(domain, delay, 0, delay);
+                    for (String name : PropertyExtractionHelper.OPTIONS) {
+                        String optionValue = environment.getProperty(getPropertyKey(property, name));
+                        if (optionValue != null) {
+                            PropertyExtractionHelper.setOption(entry, name, optionValue);
+                        }
+                    }
+                    delayCache.putEntry(entry);
                 }
-            } else {
-                int delay = Integer.parseInt(environment.getProperty(property));
-                delayCache.putEntry(new PolitenessEntry(getPropertyKey(property, "domain"), delay, 0, delay));
             }
         }
     }
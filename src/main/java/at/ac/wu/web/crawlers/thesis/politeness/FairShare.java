@@ -0,0 +1,252 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Shares the slots of a politeness group among the clients requesting it, so a client
+ * polling faster than others does not win every slot.
+ * <p>
+ * Each client has a virtual time per group which advances by <tt>1 / weight</tt> with
+ * every slot it is served. Of all clients waiting for a group, the one with the lowest
+ * virtual time is next. With every request costing the same, this is deficit round robin
+ * with a quantum of the client's weight. Clients returning after a pause start at the
+ * virtual time of the group and cannot claim the slots they did not use.
+ * <p>
+ * Clients polling for slots count as waiting from their first denied request on until
+ * they are served, or until they did not ask again within the window.
+ */
+public class FairShare {
+
+    private static Logger log = LoggerFactory.getLogger(FairShare.class);
+    private final ConcurrentHashMap<String, GroupState> groups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ClientStats> stats = new ConcurrentHashMap<>();
+    private final Map<String, Integer> weights;
+    private final long idleNanos;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param weights     weights of the clients, clients not listed have a weight of 1
+     * @param idleTimeout time after which a client not requesting a group anymore is forgotten
+     * @param unit        unit of the idle timeout
+     */
+    public FairShare(Map<String, Integer> weights, long idleTimeout, TimeUnit unit) {
+        this.weights = weights;
+        this.idleNanos = unit.toNanos(idleTimeout);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FairShare.sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, Math.min(unit.toMillis(idleTimeout), 60_000L));
+        this.sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks if it is the given client's turn to take a slot of the group. The client is
+     * registered as waiting until it is {@link #served(String, String) served}.
+     *
+     * @param group       Politeness group
+     * @param client      Client
+     * @param windowNanos Time other waiting clients are expected to ask again
+     * @return false if another waiting client had fewer slots
+     */
+    public boolean isTurn(String group, String client, long windowNanos) {
+        GroupState state = groups.computeIfAbsent(group, g -> new GroupState());
+        boolean turn;
+        synchronized (state) {
+            long now = System.nanoTime();
+            ClientState current = state.join(client, now);
+            if (current.waitingSince == 0L) {
+                current.waitingSince = now;
+            }
+            turn = true;
+            for (ClientState other : state.clients.values()) {
+                if (other != current && other.waitingSince != 0L && now - other.lastSeen <= windowNanos && other
+                        .virtualTime < current.virtualTime) {
+                    turn = false;
+                    break;
+                }
+            }
+        }
+        if (!turn) {
+            stats(client).denied.incrementAndGet();
+        }
+        return turn;
+    }
+
+    /**
+     * Picks the client to serve next from the given clients waiting for a slot of the group.
+     *
+     * @param group   Politeness group
+     * @param clients Clients waiting
+     * @return client with the fewest slots, null if there are none
+     */
+    public String next(String group, Collection<String> clients) {
+        GroupState state = groups.computeIfAbsent(group, g -> new GroupState());
+        synchronized (state) {
+            long now = System.nanoTime();
+            ClientState next = null;
+            for (String client : clients) {
+                ClientState current = state.join(client, now);
+                if (next == null || current.virtualTime < next.virtualTime) {
+                    next = current;
+                }
+            }
+            return next == null ? null : next.name;
+        }
+    }
+
+    /**
+     * Records that the given client was served a slot of the group after waiting since
+     * its first denied request.
+     *
+     * @param group  Politeness group
+     * @param client Client
+     */
+    public void served(String group, String client) {
+        served(group, client, -1L);
+    }
+
+    /**
+     * Records that the given client was served a slot of the group.
+     *
+     * @param group       Politeness group
+     * @param client      Client
+     * @param waitedNanos Time the client waited for the slot, -1 if it waited since its first
+     *                    denied request
+     */
+    public void served(String group, String client, long waitedNanos) {
+        GroupState state = groups.computeIfAbsent(group, g -> new GroupState());
+        synchronized (state) {
+            long now = System.nanoTime();
+            ClientState current = state.join(client, now);
+            if (waitedNanos < 0L) {
+                waitedNanos = current.waitingSince == 0L ? 0L : now - current.waitingSince;
+            }
+            state.clock = Math.max(state.clock, current.virtualTime);
+            current.virtualTime += 1.0 / weight(client);
+            current.waitingSince = 0L;
+        }
+        ClientStats clientStats = stats(client);
+        clientStats.served.incrementAndGet();
+        clientStats.waited.addAndGet(waitedNanos);
+        clientStats.maxWait.accumulate(waitedNanos);
+    }
+
+    /**
+     * @return statistics of all clients seen within the idle timeout
+     */
+    public Map<String, ClientStats> getStats() {
+        return stats;
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private int weight(String client) {
+        Integer weight = weights.get(client);
+        return weight == null || weight <= 0 ? 1 : weight;
+    }
+
+    private ClientStats stats(String client) {
+        ClientStats clientStats = stats.computeIfAbsent(client, c -> new ClientStats());
+        clientStats.lastSeen = System.nanoTime();
+        return clientStats;
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        int removed = 0;
+        for (Map.Entry<String, GroupState> entry : groups.entrySet()) {
+            GroupState state = entry.getValue();
+            synchronized (state) {
+                state.clients.values().removeIf(c -> now - c.lastSeen > idleNanos);
+                if (state.clients.isEmpty() && groups.remove(entry.getKey(), state)) {
+                    removed++;
+                }
+            }
+        }
+        stats.values().removeIf(s -> now - s.lastSeen > idleNanos);
+        if (removed > 0) {
+            log.debug("Removed " + removed + " idle groups, " + groups.size() + " remaining");
+        }
+    }
+
+    /**
+     * Wait statistics of a client over all groups.
+     */
+    public static final class ClientStats {
+        private final AtomicLong served = new AtomicLong();
+        private final AtomicLong denied = new AtomicLong();
+        private final AtomicLong waited = new AtomicLong();
+        private final LongAccumulator maxWait = new LongAccumulator(Math::max, 0L);
+        private volatile long lastSeen;
+
+        /**
+         * @return number of slots the client was served
+         */
+        public long getServed() {
+            return served.get();
+        }
+
+        /**
+         * @return number of requests denied because another client was waiting longer
+         */
+        public long getDenied() {
+            return denied.get();
+        }
+
+        /**
+         * @return average time in milliseconds the client waited for a slot
+         */
+        public long getAverageWait() {
+            long count = served.get();
+            return count == 0 ? 0L : TimeUnit.NANOSECONDS.toMillis(waited.get() / count);
+        }
+
+        /**
+         * @return longest time in milliseconds the client waited for a slot
+         */
+        public long getMaxWait() {
+            return TimeUnit.NANOSECONDS.toMillis(maxWait.get());
+        }
+    }
+
+    private static final class GroupState {
+        final Map<String, ClientState> clients = new HashMap<>();
+        double clock;
+
+        ClientState join(String client, long now) {
+            ClientState state = clients.computeIfAbsent(client, ClientState::new);
+            if (state.waitingSince == 0L) {
+                //Slots not used while the client was away are gone
+                state.virtualTime = Math.max(state.virtualTime, clock);
+            }
+            state.lastSeen = now;
+            return state;
+        }
+    }
+
+    private static final class ClientState {
+        final String name;
+        double virtualTime;
+        long waitingSince;
+        long lastSeen;
+
+        ClientState(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import java.io.Serializable;
+
+/**
+ * Grants one proxy instance the right to send requests to a politeness group until
+ * the lease expires (see {@link HostLeases}). All times are wall clock milliseconds.
+ */
+public class HostLease implements Serializable {
+
+    private final String owner;
+    private final long expires;
+    private final long nextAllowed;
+
+    /**
+     * @param owner       Node holding the lease
+     * @param expires     Point in time after which other nodes may take the lease over
+     * @param nextAllowed Earliest point in time the next owner may send a request
+     */
+    public HostLease(String owner, long expires, long nextAllowed) {
+        this.owner = owner;
+        this.expires = expires;
+        this.nextAllowed = nextAllowed;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    public long getNextAllowed() {
+        return nextAllowed;
+    }
+
+    /**
+     * @return earliest point in time a new owner may send its first request
+     */
+    public long getFree() {
+        return Math.max(expires, nextAllowed);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HostLease that = (HostLease) o;
+        return expires == that.expires && nextAllowed == that.nextAllowed && owner.equals(that.owner);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = owner.hashCode();
+        result = 31 * result + (int) (expires ^ (expires >>> 32));
+        result = 31 * result + (int) (nextAllowed ^ (nextAllowed >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "HostLease{" +
+                "owner='" + owner + '\'' +
+                ", expires=" + expires +
+                ", nextAllowed=" + nextAllowed +
+                '}';
+    }
+}
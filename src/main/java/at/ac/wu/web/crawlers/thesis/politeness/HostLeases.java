@@ -0,0 +1,186 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distributes politeness groups among several proxy instances sharing one lease map,
+ * usually a clustered Infinispan cache (see {@link PolitenessCluster}).
+ * <p>
+ * Only the node holding the lease of a group sends requests to it, so the delay is
+ * enforced by its local {@link HostSlots} without contacting the cluster. The shared map
+ * is only written when a lease is taken over or renewed, which happens at most once per
+ * lease duration as long as a node keeps requesting the group.
+ * <p>
+ * A node only hands out slots ending before its lease expires and a new owner starts
+ * no earlier than the expiry, so the delay also holds across a change of ownership.
+ * Clocks of all nodes are expected to be synchronized.
+ */
+public class HostLeases {
+
+    /**
+     * Returned by {@link #acquire(String, long)} if another node holds the lease.
+     */
+    public static final long NOT_OWNED = -1L;
+    private static Logger log = LoggerFactory.getLogger(HostLeases.class);
+    private final ConcurrentMap<String, HostLease> leases;
+    private final String node;
+    private final long leaseMillis;
+    private final HostSlots slots;
+    private final ConcurrentHashMap<String, Long> owned = new ConcurrentHashMap<>();
+
+    /**
+     * @param leases      Lease map shared by all nodes
+     * @param node        Unique name of this node
+     * @param leaseMillis Time a lease is held beyond the last slot handed out
+     * @param slots       Local slots of this node
+     */
+    public HostLeases(ConcurrentMap<String, HostLease> leases, String node, long leaseMillis, HostSlots slots) {
+        this.leases = leases;
+        this.node = node;
+        this.leaseMillis = leaseMillis;
+        this.slots = slots;
+    }
+
+    /**
+     * Reserves a slot of the given group like {@link HostSlots#reserve(String, long, long, long, long)},
+     * if this node holds the lease of the group until the slot has passed.
+     *
+     * @param group          Politeness group
+     * @param delayNanos     Delay between two requests
+     * @param toleranceNanos Time requests may run ahead of the average
+     * @param maxWaitNanos   Longest time the slot may start in the future
+     * @return start of the slot ({@link System#nanoTime()}) or {@link HostSlots#NO_SLOT}
+     */
+    public long reserve(String group, long delayNanos, long toleranceNanos, long maxWaitNanos) {
+        //Taken before the wall clock is read, so the deadline errs on the early side
+        long now = System.nanoTime();
+        long until = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(delayNanos + toleranceNanos +
+                                                                                    maxWaitNanos) + 1;
+        long leaseNanos = acquire(group, until);
+        if (leaseNanos == NOT_OWNED) {
+            return HostSlots.NO_SLOT;
+        }
+        return slots.reserve(group, delayNanos, toleranceNanos, maxWaitNanos, now + leaseNanos);
+    }
+
+    /**
+     * Makes sure this node holds the lease of the given group at least until the given
+     * point in time. If the lease is taken over from another node, the local slot is
+     * postponed until the previous owner's slots have passed.
+     *
+     * @param group       Politeness group
+     * @param untilMillis Wall clock time the lease must last at least
+     * @return nanoseconds until the lease expires or {@link #NOT_OWNED}
+     */
+    public long acquire(String group, long untilMillis) {
+        Long expires = owned.get(group);
+        long now = System.currentTimeMillis();
+        if (expires != null && expires >= untilMillis) {
+            return remaining(expires, now);
+        }
+        long newExpires = Math.max(untilMillis, now) + leaseMillis;
+        while (true) {
+            HostLease current = leases.get(group);
+            if (current == null) {
+                if (leases.putIfAbsent(group, new HostLease(node, newExpires, 0L)) == null) {
+                    return owned(group, newExpires, now);
+                }
+            } else if (current.getOwner().equals(node) || current.getExpires() < now) {
+                boolean takeOver = !current.getOwner().equals(node);
+                if (takeOver) {
+                    //Before the lease is visible, other threads of this node may use it right away
+                    slots.postpone(group, TimeUnit.MILLISECONDS.toNanos(Math.max(0L, current.getFree() - now)));
+                }
+                //A concurrent renewal may already have extended the lease further, never shorten it
+                long expiresAt = takeOver ? newExpires : Math.max(newExpires, current.getExpires());
+                if (leases.replace(group, current, new HostLease(node, expiresAt, current.getNextAllowed()))) {
+                    if (takeOver) {
+                        log.debug("Took over lease of " + group + " from " + current.getOwner());
+                    }
+                    return owned(group, expiresAt, now);
+                }
+            } else {
+                owned.remove(group);
+                return NOT_OWNED;
+            }
+        }
+    }
+
+    /**
+     * Returns how long this node has to wait until it may send requests to the given group.
+     *
+     * @param group Politeness group
+     * @return remaining milliseconds, 0 if this node holds the lease or may take it over
+     */
+    public long millisUntilFree(String group) {
+        HostLease current = leases.get(group);
+        long now = System.currentTimeMillis();
+        if (current == null || current.getOwner().equals(node) || current.getExpires() < now) {
+            return 0L;
+        }
+        return current.getFree() - now;
+    }
+
+    /**
+     * Records a pause requested by the given group in its lease, so that a new owner
+     * respects it as well.
+     *
+     * @param group       Politeness group
+     * @param untilMillis Wall clock time the pause ends
+     */
+    public void postpone(String group, long untilMillis) {
+        while (true) {
+            HostLease current = leases.get(group);
+            if (current == null || !current.getOwner().equals(node) || current.getNextAllowed() >= untilMillis) {
+                return;
+            }
+            if (leases.replace(group, current, new HostLease(node, current.getExpires(), untilMillis))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands all leases of this node back, so other nodes can take the groups over as soon
+     * as the last local slot has passed.
+     */
+    public void releaseAll() {
+        for (String group : owned.keySet()) {
+            HostLease current = leases.get(group);
+            if (current == null || !current.getOwner().equals(node)) {
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            long next = now + TimeUnit.NANOSECONDS.toMillis(slots.nanosUntilAllowed(group)) + 1;
+            leases.replace(group, current, new HostLease(node, now, Math.max(next, current.getNextAllowed())));
+        }
+        owned.clear();
+    }
+
+    /**
+     * @return all groups this node currently holds the lease of
+     */
+    public Map<String, Long> getOwned() {
+        return owned;
+    }
+
+    private long owned(String group, long expires, long now) {
+        if (owned.size() > slots.size()) {
+            //Forget expired leases of groups swept from the local slots
+            owned.values().removeIf(e -> e < now);
+        }
+        owned.merge(group, expires, Math::max);
+        return remaining(expires, now);
+    }
+
+    private static long remaining(long expires, long now) {
+        //One millisecond less, the wall clock is only read with millisecond precision
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, expires - now - 1));
+    }
+}
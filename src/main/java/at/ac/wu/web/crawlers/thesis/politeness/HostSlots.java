@@ -0,0 +1,299 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Index holding for each host the point in time ({@link System#nanoTime()}) at which
+ * the next request to this host may be sent.
+ * <p>
+ * Every lookup is a single hash access. Hosts which were not requested for longer than
+ * the idle timeout are removed by a background sweep.
+ */
+public class HostSlots {
+
+    /**
+     * Marks a slot which was removed by the sweep, writers have to look up a fresh one.
+     */
+    static final long RETIRED = Long.MIN_VALUE;
+    /**
+     * Returned by {@link #reserve(String, long, long)} if no slot could be reserved.
+     */
+    public static final long NO_SLOT = Long.MAX_VALUE;
+    /**
+     * Passed to {@link #reserve(String, long, long, long, long)} if the slot has no deadline.
+     */
+    public static final long NO_DEADLINE = Long.MIN_VALUE;
+    private static Logger log = LoggerFactory.getLogger(HostSlots.class);
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final long idleNanos;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param idleTimeout time after which a host not requested anymore is removed
+     * @param unit        unit of the idle timeout
+     */
+    public HostSlots(long idleTimeout, TimeUnit unit) {
+        this.idleNanos = unit.toNanos(idleTimeout);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "HostSlots.sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, Math.min(unit.toMillis(idleTimeout), 60_000L));
+        this.sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks if a request to the given host may be sent now.
+     *
+     * @param host Host
+     * @return true if no delay is pending for the host
+     */
+    public boolean isAllowed(String host) {
+        return nanosUntilAllowed(host) == 0L;
+    }
+
+    /**
+     * Returns how long a request to the given host has to wait.
+     *
+     * @param host Host
+     * @return remaining nanoseconds, 0 if a request may be sent now
+     */
+    public long nanosUntilAllowed(String host) {
+        return nanosUntilAllowed(host, 0L);
+    }
+
+    /**
+     * Returns how long a request to the given host has to wait, if requests may run ahead
+     * by the given tolerance (see {@link #reserve(String, long, long, long, long)}).
+     *
+     * @param host           Host
+     * @param toleranceNanos Time in nanoseconds requests may run ahead of the average
+     * @return remaining nanoseconds, 0 if a request may be sent now
+     */
+    public long nanosUntilAllowed(String host, long toleranceNanos) {
+        Slot slot = slots.get(host);
+        if (slot == null) {
+            return 0L;
+        }
+        long next = slot.nextAllowed;
+        long remaining = next - toleranceNanos - System.nanoTime();
+        return next == RETIRED || remaining <= 0L ? 0L : remaining;
+    }
+
+    /**
+     * Atomically checks if a request to the given host may be sent now and, if so,
+     * records it. Of several concurrent callers for the same host at most one succeeds
+     * per delay.
+     *
+     * @param host       Host
+     * @param delayNanos Delay in nanoseconds until the following request
+     * @return true if the request may be sent
+     */
+    public boolean tryAcquire(String host, long delayNanos) {
+        return reserve(host, delayNanos, 0L) != NO_SLOT;
+    }
+
+    /**
+     * Atomically reserves the earliest free slot for the given host, if it starts
+     * within the given maximum wait time.
+     *
+     * @param host         Host
+     * @param delayNanos   Delay in nanoseconds until the following request
+     * @param maxWaitNanos Maximum time in nanoseconds the request may wait for its slot
+     * @return start of the reserved slot in {@link System#nanoTime()}, {@link #NO_SLOT} if
+     * no slot starts within the maximum wait time
+     */
+    public long reserve(String host, long delayNanos, long maxWaitNanos) {
+        return reserve(host, delayNanos, 0L, maxWaitNanos, NO_DEADLINE);
+    }
+
+    /**
+     * Atomically reserves the earliest free slot for the given host, allowing bursts.
+     * <p>
+     * The slot state is used as the theoretical arrival time of a generic cell rate
+     * algorithm: a request may start as soon as it is not more than the tolerance ahead
+     * of it, each request moves it on by the delay. With a tolerance of
+     * <tt>(burst - 1) * delay</tt> this is a token bucket refilling one token per delay,
+     * with a tolerance of 0 it is a fixed delay between requests.
+     *
+     * @param host           Host
+     * @param delayNanos     Delay in nanoseconds, the average gap between requests
+     * @param toleranceNanos Time in nanoseconds requests may run ahead of the average
+     * @param maxWaitNanos   Maximum time in nanoseconds the request may wait for its slot
+     * @param deadlineNanos  Point in time ({@link System#nanoTime()}) the slot must have passed
+     *                       before, {@link #NO_DEADLINE} if there is none
+     * @return start of the reserved slot in {@link System#nanoTime()} or {@link #NO_SLOT}
+     */
+    public long reserve(String host, long delayNanos, long toleranceNanos, long maxWaitNanos, long deadlineNanos) {
+        while (true) {
+            Slot slot = slots.computeIfAbsent(host, h -> new Slot());
+            long next = slot.nextAllowed;
+            if (next == RETIRED) {
+                continue;
+            }
+            long now = System.nanoTime();
+            long earliest = next - toleranceNanos;
+            long start = earliest - now > 0L ? earliest : now;
+            if (start - now > maxWaitNanos) {
+                return NO_SLOT;
+            }
+            long end = (next - start > 0L ? next : start) + delayNanos;
+            if (deadlineNanos != NO_DEADLINE && end - deadlineNanos > 0L) {
+                return NO_SLOT;
+            }
+            if (Slot.NEXT_ALLOWED.compareAndSet(slot, next, end)) {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Postpones the next slot of the given host, e.g. because the host asked to back off.
+     * Slots already reserved further in the future are not changed.
+     *
+     * @param host       Host
+     * @param pauseNanos Time in nanoseconds from now on in which no request may be sent
+     */
+    public void postpone(String host, long pauseNanos) {
+        while (true) {
+            Slot slot = slots.computeIfAbsent(host, h -> new Slot());
+            long next = slot.nextAllowed;
+            if (next == RETIRED) {
+                continue;
+            }
+            long until = System.nanoTime() + pauseNanos;
+            if (until - next <= 0L || Slot.NEXT_ALLOWED.compareAndSet(slot, next, until)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers a request to the given host as in flight, if less than the given maximum
+     * of requests are in flight already. Every successful call must be followed by a call
+     * to {@link #exit(String)} once the request completed.
+     *
+     * @param host          Host
+     * @param maxConcurrent Maximum number of requests in flight
+     * @return true if the request may be sent
+     */
+    public boolean tryEnter(String host, int maxConcurrent) {
+        while (true) {
+            Slot slot = slots.computeIfAbsent(host, h -> new Slot());
+            int count = slot.inFlight;
+            if (slot.nextAllowed == RETIRED) {
+                continue;
+            }
+            if (count >= maxConcurrent) {
+                return false;
+            }
+            if (Slot.IN_FLIGHT.compareAndSet(slot, count, count + 1)) {
+                if (slot.nextAllowed == RETIRED) {
+                    //Lost against the sweep, try again on the fresh slot
+                    Slot.IN_FLIGHT.decrementAndGet(slot);
+                    continue;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Marks a request registered with {@link #tryEnter(String, int)} as completed.
+     *
+     * @param host Host
+     */
+    public void exit(String host) {
+        //Slots with requests in flight are never removed by the sweep
+        Slot slot = slots.get(host);
+        if (slot != null) {
+            Slot.IN_FLIGHT.decrementAndGet(slot);
+        }
+    }
+
+    /**
+     * @param host Host
+     * @return number of requests to the given host in flight
+     */
+    public int getInFlight(String host) {
+        Slot slot = slots.get(host);
+        return slot == null ? 0 : slot.inFlight;
+    }
+
+    /**
+     * @return all hosts with requests in flight and the number of these requests
+     */
+    public Map<String, Integer> getInFlight() {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            int count = entry.getValue().inFlight;
+            if (count > 0) {
+                result.put(entry.getKey(), count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of hosts currently tracked
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Stops the background sweep.
+     */
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Removes all hosts whose delay elapsed more than the idle timeout ago.
+     */
+    void sweep() {
+        int removed = 0;
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            Slot slot = entry.getValue();
+            long next = slot.nextAllowed;
+            //Retire first, so that a concurrent writer either wins the CAS or moves on to a fresh slot
+            if (next != RETIRED && slot.inFlight == 0 && System.nanoTime() - next > idleNanos
+                    && Slot.NEXT_ALLOWED.compareAndSet(slot, next, RETIRED)) {
+                if (slot.inFlight != 0) {
+                    //A request entered concurrently, it keeps the slot alive
+                    slot.nextAllowed = next;
+                    continue;
+                }
+                slots.remove(entry.getKey(), slot);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.debug("Removed " + removed + " idle hosts, " + slots.size() + " remaining");
+        }
+    }
+
+    static final class Slot {
+        static final AtomicLongFieldUpdater<Slot> NEXT_ALLOWED = AtomicLongFieldUpdater.newUpdater(Slot.class,
+                                                                                                  "nextAllowed");
+        static final AtomicIntegerFieldUpdater<Slot> IN_FLIGHT = AtomicIntegerFieldUpdater.newUpdater(Slot.class,
+                                                                                                  "inFlight");
+        volatile long nextAllowed;
+        volatile int inFlight;
+
+        Slot() {
+            this.nextAllowed = System.nanoTime();
+        }
+    }
+}
@@ -1,93 +1,354 @@
 package at.ac.wu.web.crawlers.thesis.politeness;
 
-import org.infinispan.Cache;
-import org.infinispan.configuration.cache.Configuration;
-import org.infinispan.configuration.cache.ConfigurationBuilder;
-import org.infinispan.configuration.global.GlobalConfiguration;
-import org.infinispan.configuration.global.GlobalConfigurationBuilder;
-import org.infinispan.eviction.EvictionType;
-import org.infinispan.manager.DefaultCacheManager;
+import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Represents the infinispan cache holding the information
- * which domains where crawled at which time.
+ * Holds the information which domains where crawled at which time.
+ * <p>
+ * For each domain only the point in time of the next allowed request is kept
+ * (see {@link HostSlots}), so checks do not depend on the number of crawled domains.
+ * Domains of the same politeness group (see {@link PolitenessGroups}) share one slot.
+ * If several instances form a {@link PolitenessCluster}, each group is served by the
+ * instance holding its lease (see {@link HostLeases}).
  * <p>
  * Created by Patrick on 11.07.2017.
  */
 @Component
 @org.springframework.context.annotation.Configuration
-public class PolitenessCache {
+public class PolitenessCache implements InitializingBean, DisposableBean {
 
-    static Cache<String, String> cache;
     private static Logger log = LoggerFactory.getLogger(PolitenessCache.class);
     @Autowired
     PolitenessConfiguration config;
     @Autowired
     DomainDelayCache delayCache;
+    @Autowired
+    PolitenessGroups groups;
+    @Autowired
+    PolitenessCluster cluster;
+    private HostSlots slots;
+    private HostLeases leases;
+    private FairShare fairShare;
+    private AdaptiveDelayController adaptiveController;
+    private AdaptiveDelays adaptiveDelays;
+
+    @Override
+    public void afterPropertiesSet() {
+        this.slots = new HostSlots(config.getIdleTimeout(), TimeUnit.MILLISECONDS);
+        if (cluster.isEnabled()) {
+            this.leases = new HostLeases(cluster.getLeaseCache(), cluster.getNodeName(), config.getCluster()
+                    .getLeaseDuration(), slots);
+        }
+        if (config.getFairness().isEnabled()) {
+            this.fairShare = new FairShare(config.getFairness().getWeights(), config.getIdleTimeout(), TimeUnit
+                    .MILLISECONDS);
+        }
+        if (config.getAdaptive().isEnabled()) {
+            this.adaptiveController = new AdaptiveDelayController(config.getAdaptive());
+            this.adaptiveDelays = new AdaptiveDelays(adaptiveController, config.getDefaultDelay(), config
+                    .getIdleTimeout(), TimeUnit.MILLISECONDS, delayCache::updateAdaptiveDelay);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.leases != null) {
+            this.leases.releaseAll();
+        }
+        this.slots.close();
+        if (this.fairShare != null) {
+            this.fairShare.close();
+        }
+    }
+
+    /**
+     * @return number of domains currently tracked
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Checks if a request to the given domain is allowed and, if so, records it in one
+     * atomic step. Concurrent requests to the same domain can therefore not pass the
+     * check together.
+     *
+     * @param domain Domain
+     * @return true if the request may be sent now
+     */
+    public boolean tryAcquire(String domain) {
+        PolitenessEntry entry = this.delayCache.getEntryForHost(domain);
+        int delay = getDelay(domain, entry);
+        if (reserveSlot(groups.groupOf(domain), entry, delay, 0L) != HostSlots.NO_SLOT) {
+            log.debug("Domain " + domain + " added to cache with delay of " + delay);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reserves the next free slot for the given domain, if it starts within the maximum
+     * wait time configured for the domain.
+     *
+     * @param domain Domain
+     * @return nanoseconds until the reserved slot starts, -1 if no slot could be reserved
+     */
+    public long reserve(String domain) {
+        PolitenessEntry entry = this.delayCache.getEntryForHost(domain);
+        int delay = getDelay(domain, entry);
+        int maxWait = getMaxWait(entry);
+        long start = reserveSlot(groups.groupOf(domain), entry, delay, TimeUnit.MILLISECONDS.toNanos(maxWait));
+        if (start == HostSlots.NO_SLOT) {
+            return -1L;
+        }
+        log.debug("Domain " + domain + " reserved slot with delay of " + delay);
+        return Math.max(0L, start - System.nanoTime());
+    }
+
+    /**
+     * @param domain Domain
+     * @return longest time in milliseconds a request to the domain may be held back
+     */
+    public int getMaxWait(String domain) {
+        return getMaxWait(this.delayCache.getEntryForHost(domain));
+    }
+
+    /**
+     * @return milliseconds after which a delayed request retries if the domain has too many
+     * requests in flight
+     */
+    public long getConcurrencyRetry() {
+        return this.config.getConcurrencyRetry();
+    }
+
+    /**
+     * Registers a request to the given domain as in flight, if the maximum number of
+     * concurrent requests for the domain is not reached yet. A successful call must be
+     * followed by {@link #exit(String)} once the response was received.
+     *
+     * @param domain Domain
+     * @return true if the request may be sent
+     */
+    public boolean tryEnter(String domain) {
+        PolitenessEntry entry = this.delayCache.getEntryForHost(domain);
+        int maxConcurrent = entry == null || entry.getMaxConcurrent() <= 0 ? this.config.getMaxConcurrent() : entry
+                .getMaxConcurrent();
+        return slots.tryEnter(groups.groupOf(domain), maxConcurrent <= 0 ? Integer.MAX_VALUE : maxConcurrent);
+    }
+
+    /**
+     * Marks a request registered with {@link #tryEnter(String)} as completed.
+     *
+     * @param domain Domain
+     */
+    public void exit(String domain) {
+        slots.exit(groups.groupOf(domain));
+    }
+
+    /**
+     * @return all politeness groups with requests in flight and the number of these requests
+     */
+    public Map<String, Integer> getInFlight() {
+        return slots.getInFlight();
+    }
+
+    /**
+     * @return true if the slots of a domain are shared fairly among the clients (see {@link FairShare})
+     */
+    public boolean isFair() {
+        return fairShare != null;
+    }
 
-    private Cache<String, String> cache() {
-        if (cache == null) {
-            Configuration configuration = new ConfigurationBuilder()
-                    .memory()
-                    .size(config.getMemory())
-                    .evictionType(EvictionType.MEMORY)
-                    .expiration()
-                    .lifespan(1L, TimeUnit.HOURS)
-                    .jmxStatistics()
-                    .enable()
-                    .build();
-            GlobalConfiguration globalConfiguration = new GlobalConfigurationBuilder()
-                    .globalJmxStatistics()
-                    .enable()
-                    .cacheManagerName("PolitenessCacheManager")
-                    .jmxDomain(config.getJmxDomain())
-                    .allowDuplicateDomains(true)
-                    .build();
-            this.cache = new DefaultCacheManager(globalConfiguration, configuration).getCache("politeness-cache");
-        }
-        return this.cache;
-    }
-
-    public Cache<String, String> getCache() {
-        return cache();
-    }
-
-    public void add(String domain) {
-        PolitenessEntry politenessEntry = this.delayCache.getEntry(domain);
-        if (politenessEntry != null) {
-            log.debug("Domain " + domain + " added to cache with lifespan of " + politenessEntry.getDelay());
-            cache().put(domain + System.currentTimeMillis(), "", politenessEntry.getDelay(), TimeUnit.MILLISECONDS);
-        } else {
-            log.debug("Domain " + domain + " added to cache with configured default lifespan of " + this.config
-                    .getDefaultDelay());
-            cache().put(domain + System.currentTimeMillis(), "", this.config.getDefaultDelay(), TimeUnit.MILLISECONDS);
+    /**
+     * Checks if it is the given client's turn to request the domain, i.e. no other client
+     * waiting for the domain was served less often. Always true if fairness is disabled.
+     *
+     * @param domain Domain
+     * @param client Client
+     * @return false if the client has to let another client go first
+     */
+    public boolean isTurn(String domain, String client) {
+        if (fairShare == null) {
+            return true;
         }
+        //Polling clients ask again after the delay at the earliest
+        long window = Math.max(config.getFairness().getWindow(), 2L * getDelayForDomain(domain));
+        return fairShare.isTurn(groups.groupOf(domain), client, TimeUnit.MILLISECONDS.toNanos(window));
+    }
+
+    /**
+     * Picks the client to serve next from the given clients waiting for the domain.
+     *
+     * @param domain  Domain
+     * @param clients Clients waiting
+     * @return next client, the first one if fairness is disabled
+     */
+    public String nextClient(String domain, Collection<String> clients) {
+        if (fairShare == null) {
+            return clients.isEmpty() ? null : clients.iterator().next();
+        }
+        return fairShare.next(groups.groupOf(domain), clients);
+    }
+
+    /**
+     * Records that the given client got a slot of the domain after waiting for it.
+     *
+     * @param domain      Domain
+     * @param client      Client
+     * @param waitedNanos Time the client waited, -1 if it polled since its first denied request
+     */
+    public void served(String domain, String client, long waitedNanos) {
+        if (fairShare != null) {
+            fairShare.served(groups.groupOf(domain), client, waitedNanos);
+        }
+    }
+
+    /**
+     * @return wait statistics of each client, empty if fairness is disabled
+     */
+    public Map<String, FairShare.ClientStats> getClientStats() {
+        return fairShare == null ? Collections.emptyMap() : fairShare.getStats();
+    }
+
+    /**
+     * @param domain Domain
+     * @return politeness group of the domain
+     */
+    public String getGroup(String domain) {
+        return groups.groupOf(domain);
     }
 
     public boolean isAllowed(String domain) {
-        return cache().entrySet().stream().noneMatch(e -> e.getKey().startsWith(domain));
+        return getRemainingDelay(domain) == 0;
     }
 
-    public int getDelayForDomain(final String domain) {
-        PolitenessEntry entry = this.delayCache.getEntry(domain);
-        if (entry == null) {
-            return this.config.getDefaultDelay();
-        } else {
-            return entry.getDelay();
+    /**
+     * Returns the time left until the next request to the given domain is allowed.
+     *
+     * @param domain Domain
+     * @return remaining delay in milliseconds, 0 if a request is allowed now
+     */
+    public int getRemainingDelay(String domain) {
+        String group = groups.groupOf(domain);
+        PolitenessEntry entry = this.delayCache.getEntryForHost(domain);
+        long nanos = slots.nanosUntilAllowed(group, getTolerance(entry, TimeUnit.MILLISECONDS.toNanos(getDelay
+                (domain, entry))));
+        if (leases != null) {
+            //Another instance may hold the lease of the group
+            nanos = Math.max(nanos, TimeUnit.MILLISECONDS.toNanos(leases.millisUntilFree(group)));
         }
+        //Round up, a remaining delay must never be reported as 0
+        return (int) TimeUnit.NANOSECONDS.toMillis(nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    public int getDelayForDomain(final String domain) {
+        return getDelay(domain, this.delayCache.getEntryForHost(domain));
     }
 
-    //TODO implement for request duration
+    /**
+     * Updates the adaptive delay of the given domain with the duration and outcome of a request.
+     *
+     * @param domain     Domain
+     * @param timeMillis Duration of the request
+     * @param statusCode Status code of the response, {@link AdaptiveDelayController#NO_RESPONSE} if the
+     *                   request failed
+     */
     public void updateLatency(String domain, long timeMillis, int statusCode) {
-        PolitenessEntry entry = this.delayCache.getEntry(domain);
-        if (entry != null) {
+        if (adaptiveDelays == null) {
+            return;
+        }
+        domain = domain.toLowerCase();
+        PolitenessEntry entry = this.delayCache.getEntryForHost(domain);
+        //Without an entry, the load is shared by all domains of the group
+        String group = groups.groupOf(domain);
+        if (adaptiveDelays.update(group, entry, timeMillis, statusCode)) {
+            log.debug("Adaptive delay of " + domain + " changed to " + adaptiveDelays.getAdaptiveDelay(group, entry)
+                              + " (status " + statusCode + ")");
+        }
+    }
+
+    /**
+     * Evaluates an upstream response for a request to back off. If the domain answered
+     * 429 or 503, no request is let through until the time given in the Retry-After header
+     * (or the configured default backoff) has passed.
+     *
+     * @param domain     Domain
+     * @param statusCode Status code of the response
+     * @param retryAfter Value of the Retry-After header, may be null
+     */
+    public void backOff(String domain, int statusCode, String retryAfter) {
+        if (statusCode != 429 && statusCode != 503) {
+            return;
+        }
+        long pause = HttpUtils.parseRetryAfter(retryAfter, System.currentTimeMillis());
+        if (pause < 0) {
+            pause = this.config.getDefaultBackoff();
+        }
+        pause = Math.min(pause, this.config.getMaxBackoff());
+        log.debug("Domain " + domain + " answered " + statusCode + ", backing off for " + pause + " ms");
+        domain = domain.toLowerCase();
+        String group = groups.groupOf(domain);
+        PolitenessEntry entry = this.delayCache.getEntryForHost(domain);
+        //A burst must not cut the pause short
+        long tolerance = TimeUnit.NANOSECONDS.toMillis(getTolerance(entry, TimeUnit.MILLISECONDS.toNanos(getDelay
+                (domain, entry))));
+        slots.postpone(group, TimeUnit.MILLISECONDS.toNanos(pause + tolerance));
+        if (leases != null) {
+            leases.postpone(group, System.currentTimeMillis() + pause + tolerance);
+        }
+    }
 
+    /**
+     * Reserves a slot of the given group according to the policy of its entry. In a cluster,
+     * the slot is only handed out if this instance holds the lease of the group.
+     */
+    private long reserveSlot(String group, PolitenessEntry entry, int delay, long maxWaitNanos) {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+        long toleranceNanos = getTolerance(entry, delayNanos);
+        if (leases != null) {
+            return leases.reserve(group, delayNanos, toleranceNanos, maxWaitNanos);
+        }
+        return slots.reserve(group, delayNanos, toleranceNanos, maxWaitNanos, HostSlots.NO_DEADLINE);
+    }
+
+    /**
+     * Time requests may run ahead of the delay: none for {@link PolitenessEntry.Policy#DELAY},
+     * the delay for each request of the burst but the first for
+     * {@link PolitenessEntry.Policy#TOKEN_BUCKET}.
+     */
+    private long getTolerance(PolitenessEntry entry, long delayNanos) {
+        if (entry == null || entry.getPolicy() != PolitenessEntry.Policy.TOKEN_BUCKET || entry.getBurst() <= 1) {
+            return 0L;
+        }
+        return (entry.getBurst() - 1) * delayNanos;
+    }
+
+    private int getMaxWait(PolitenessEntry entry) {
+        return entry == null || entry.getMaxWait() <= 0 ? this.config.getMaxWait() : entry.getMaxWait();
+    }
+
+    private int getDelay(String domain, PolitenessEntry entry) {
+        int delay = entry == null ? this.config.getDefaultDelay() : entry.getDelay();
+        int adaptive = adaptiveDelays == null ? 0 : adaptiveDelays.getAdaptiveDelay(groups.groupOf(domain), entry);
+        if (adaptive > 0) {
+            //Floor is checked again, robots.txt or configuration may have changed since the last update
+            delay = Math.max(adaptive, adaptiveController.getFloor(entry));
+        }
+        if (entry != null && entry.getRate() > 0) {
+            //A configured rate is a lower bound like a configured delay
+            delay = Math.max(delay, (int) Math.ceil(1000 / entry.getRate()));
         }
+        return delay;
     }
 }
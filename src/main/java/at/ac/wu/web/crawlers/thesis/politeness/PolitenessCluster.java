@@ -0,0 +1,135 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clustered cache manager shared by the politeness caches if <tt>politeness.cluster.enabled</tt>
+ * is set. Proxy instances with the same cluster name find each other via JGroups (UDP multicast
+ * by default, see <tt>politeness.cluster.jgroups-config</tt>) and share
+ * <ul>
+ * <li>the delays of the {@link DomainDelayCache}</li>
+ * <li>the leases of the politeness groups (see {@link HostLeases})</li>
+ * </ul>
+ */
+@Component
+public class PolitenessCluster implements DisposableBean {
+
+    public static final String LEASE_CACHE = "lease-cache";
+    private static Logger log = LoggerFactory.getLogger(PolitenessCluster.class);
+    @Autowired
+    PolitenessConfiguration config;
+    private EmbeddedCacheManager cacheManager;
+
+    /**
+     * Creates the cache manager of one cluster node.
+     *
+     * @param cluster       Cluster configuration
+     * @param jmxDomain     JMX domain of the cache manager
+     * @param leaseLifespan Time after which unused leases are removed
+     * @return started cache manager, the lease cache is already defined
+     */
+    public static EmbeddedCacheManager createCacheManager(PolitenessConfiguration.Cluster cluster, String jmxDomain,
+                                                          long leaseLifespan) {
+        GlobalConfigurationBuilder global = GlobalConfigurationBuilder.defaultClusteredBuilder();
+        global.transport().clusterName(cluster.getName());
+        if (cluster.getJgroupsConfig() != null) {
+            global.transport().addProperty("configurationFile", cluster.getJgroupsConfig());
+        }
+        global.globalJmxStatistics()
+                .enable()
+                .cacheManagerName("PolitenessClusterManager")
+                .jmxDomain(jmxDomain)
+                .allowDuplicateDomains(true);
+        DefaultCacheManager manager = new DefaultCacheManager(global.build());
+        manager.defineConfiguration(LEASE_CACHE, new ConfigurationBuilder()
+                .clustering()
+                .cacheMode(cluster.getMode().getCacheMode())
+                .expiration()
+                .lifespan(leaseLifespan, TimeUnit.MILLISECONDS)
+                .jmxStatistics()
+                .enable()
+                .build());
+        return manager;
+    }
+
+    @Override
+    public void destroy() {
+        if (cacheManager != null) {
+            cacheManager.stop();
+        }
+    }
+
+    /**
+     * @return true if the politeness state is shared with other instances
+     */
+    public boolean isEnabled() {
+        return config.getCluster().isEnabled();
+    }
+
+    /**
+     * Joins the cluster on first use, like the other caches the manager is created lazily.
+     *
+     * @return clustered cache manager
+     */
+    public synchronized EmbeddedCacheManager getCacheManager() {
+        if (cacheManager == null) {
+            //Leases of groups not requested for the idle timeout are of no use anymore
+            this.cacheManager = createCacheManager(config.getCluster(), config.getJmxDomain(), Math.max(config
+                    .getIdleTimeout(), config.getCluster().getLeaseDuration() * 2));
+            log.debug("Joined politeness cluster " + config.getCluster().getName() + " as " + cacheManager
+                    .getAddress() + " with " + cacheManager.getMembers());
+        }
+        return cacheManager;
+    }
+
+    /**
+     * @return cache mode of clustered politeness caches
+     */
+    public CacheMode getCacheMode() {
+        return config.getCluster().getMode().getCacheMode();
+    }
+
+    /**
+     * @return unique name of this node within the cluster
+     */
+    public String getNodeName() {
+        return getCacheManager().getAddress().toString();
+    }
+
+    public Cache<String, HostLease> getLeaseCache() {
+        return getCacheManager().getCache(LEASE_CACHE);
+    }
+
+    public enum Mode {
+        /**
+         * Every node holds all entries, reads are always local
+         */
+        REPLICATED(CacheMode.REPL_SYNC),
+        /**
+         * Entries are spread over the nodes, for large clusters
+         */
+        DISTRIBUTED(CacheMode.DIST_SYNC);
+
+        private final CacheMode cacheMode;
+
+        Mode(CacheMode cacheMode) {
+            this.cacheMode = cacheMode;
+        }
+
+        public CacheMode getCacheMode() {
+            return cacheMode;
+        }
+    }
+}
@@ -7,7 +7,9 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Configuration for the politeness cache {@link PolitenessCache}
@@ -30,6 +32,23 @@ public class PolitenessConfiguration {
     private String delayJmxDomain = "delayCache";
     private long memory = 100_000L;
     private String directory = System.getProperty("java.io.tmpdir");
+    private long idleTimeout = 3_600_000L;
+    private boolean delayForward = false;
+    private int maxWait = 10_000;
+    private int forwardThreads = 32;
+    private int forwardBufferSize = 1_048_576;
+    private int maxConcurrent = 0;
+    private long concurrencyRetry = 100L;
+    private long tick = 10L;
+    private Adaptive adaptive = new Adaptive();
+    private long defaultBackoff = 60_000L;
+    private long maxBackoff = 3_600_000L;
+    private PolitenessGroups.Grouping grouping = PolitenessGroups.Grouping.HOST;
+    private int groupCacheSize = 100_000;
+    private long groupTtl = 3_600_000L;
+    private long groupNegativeTtl = 60_000L;
+    private Cluster cluster = new Cluster();
+    private Fairness fairness = new Fairness();
 
     public HashSet<PolitenessEntry> getDomains() {
         return domains;
@@ -97,4 +116,353 @@ public class PolitenessConfiguration {
         this.directory = directory;
         return this;
     }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public PolitenessConfiguration setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public boolean isDelayForward() {
+        return delayForward;
+    }
+
+    public PolitenessConfiguration setDelayForward(boolean delayForward) {
+        this.delayForward = delayForward;
+        return this;
+    }
+
+    public int getMaxWait() {
+        return maxWait;
+    }
+
+    public PolitenessConfiguration setMaxWait(int maxWait) {
+        this.maxWait = maxWait;
+        return this;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public PolitenessConfiguration setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    public long getConcurrencyRetry() {
+        return concurrencyRetry;
+    }
+
+    public PolitenessConfiguration setConcurrencyRetry(long concurrencyRetry) {
+        this.concurrencyRetry = concurrencyRetry;
+        return this;
+    }
+
+    public int getForwardThreads() {
+        return forwardThreads;
+    }
+
+    public PolitenessConfiguration setForwardThreads(int forwardThreads) {
+        this.forwardThreads = forwardThreads;
+        return this;
+    }
+
+    public int getForwardBufferSize() {
+        return forwardBufferSize;
+    }
+
+    public PolitenessConfiguration setForwardBufferSize(int forwardBufferSize) {
+        this.forwardBufferSize = forwardBufferSize;
+        return this;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public PolitenessConfiguration setTick(long tick) {
+        this.tick = tick;
+        return this;
+    }
+
+    public Adaptive getAdaptive() {
+        return adaptive;
+    }
+
+    public PolitenessConfiguration setAdaptive(Adaptive adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    public long getDefaultBackoff() {
+        return defaultBackoff;
+    }
+
+    public PolitenessConfiguration setDefaultBackoff(long defaultBackoff) {
+        this.defaultBackoff = defaultBackoff;
+        return this;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public PolitenessConfiguration setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+        return this;
+    }
+
+    public PolitenessGroups.Grouping getGrouping() {
+        return grouping;
+    }
+
+    public PolitenessConfiguration setGrouping(PolitenessGroups.Grouping grouping) {
+        this.grouping = grouping;
+        return this;
+    }
+
+    public int getGroupCacheSize() {
+        return groupCacheSize;
+    }
+
+    public PolitenessConfiguration setGroupCacheSize(int groupCacheSize) {
+        this.groupCacheSize = groupCacheSize;
+        return this;
+    }
+
+    public long getGroupTtl() {
+        return groupTtl;
+    }
+
+    public PolitenessConfiguration setGroupTtl(long groupTtl) {
+        this.groupTtl = groupTtl;
+        return this;
+    }
+
+    public long getGroupNegativeTtl() {
+        return groupNegativeTtl;
+    }
+
+    public PolitenessConfiguration setGroupNegativeTtl(long groupNegativeTtl) {
+        this.groupNegativeTtl = groupNegativeTtl;
+        return this;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public PolitenessConfiguration setCluster(Cluster cluster) {
+        this.cluster = cluster;
+        return this;
+    }
+
+    public Fairness getFairness() {
+        return fairness;
+    }
+
+    public PolitenessConfiguration setFairness(Fairness fairness) {
+        this.fairness = fairness;
+        return this;
+    }
+
+    /**
+     * Configuration of the delays adapted to the response behaviour of a domain
+     * (see {@link AdaptiveDelayController}).
+     */
+    public static class Adaptive {
+        private boolean enabled = false;
+        private int minDelay = 500;
+        private int maxDelay = 60_000;
+        private int decreaseStep = 100;
+        private double backoffFactor = 2.0;
+        private double latencyFactor = 2.0;
+        private double latencyMultiplier = 2.0;
+        private double smoothing = 0.2;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Adaptive setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public int getMinDelay() {
+            return minDelay;
+        }
+
+        public Adaptive setMinDelay(int minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        public int getMaxDelay() {
+            return maxDelay;
+        }
+
+        public Adaptive setMaxDelay(int maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        public int getDecreaseStep() {
+            return decreaseStep;
+        }
+
+        public Adaptive setDecreaseStep(int decreaseStep) {
+            this.decreaseStep = decreaseStep;
+            return this;
+        }
+
+        public double getBackoffFactor() {
+            return backoffFactor;
+        }
+
+        public Adaptive setBackoffFactor(double backoffFactor) {
+            this.backoffFactor = backoffFactor;
+            return this;
+        }
+
+        public double getLatencyFactor() {
+            return latencyFactor;
+        }
+
+        public Adaptive setLatencyFactor(double latencyFactor) {
+            this.latencyFactor = latencyFactor;
+            return this;
+        }
+
+        public double getLatencyMultiplier() {
+            return latencyMultiplier;
+        }
+
+        public Adaptive setLatencyMultiplier(double latencyMultiplier) {
+            this.latencyMultiplier = latencyMultiplier;
+            return this;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public Adaptive setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+            return this;
+        }
+    }
+
+    /**
+     * Configuration of the politeness state shared by several proxy instances
+     * (see {@link PolitenessCluster}).
+     */
+    public static class Cluster {
+        private boolean enabled = false;
+        private String name = "politeness";
+        private PolitenessCluster.Mode mode = PolitenessCluster.Mode.REPLICATED;
+        private String jgroupsConfig;
+        private long leaseDuration = 5_000L;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Cluster setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Cluster setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public PolitenessCluster.Mode getMode() {
+            return mode;
+        }
+
+        public Cluster setMode(PolitenessCluster.Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public String getJgroupsConfig() {
+            return jgroupsConfig;
+        }
+
+        public Cluster setJgroupsConfig(String jgroupsConfig) {
+            this.jgroupsConfig = jgroupsConfig;
+            return this;
+        }
+
+        public long getLeaseDuration() {
+            return leaseDuration;
+        }
+
+        public Cluster setLeaseDuration(long leaseDuration) {
+            this.leaseDuration = leaseDuration;
+            return this;
+        }
+    }
+
+    /**
+     * Configuration of the fair share of a host's slots among clients (see {@link FairShare}).
+     */
+    public static class Fairness {
+        private boolean enabled = false;
+        private String clientHeader;
+        private Map<String, Integer> weights = new HashMap<>();
+        private long window = 1_000L;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Fairness setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        /**
+         * @return header identifying the client, the remote host is used if not set
+         */
+        public String getClientHeader() {
+            return clientHeader;
+        }
+
+        public Fairness setClientHeader(String clientHeader) {
+            this.clientHeader = clientHeader;
+            return this;
+        }
+
+        public Map<String, Integer> getWeights() {
+            return weights;
+        }
+
+        public Fairness setWeights(Map<String, Integer> weights) {
+            this.weights = weights;
+            return this;
+        }
+
+        /**
+         * @return minimum time in milliseconds a client denied a slot is still considered waiting
+         */
+        public long getWindow() {
+            return window;
+        }
+
+        public Fairness setWindow(long window) {
+            this.window = window;
+            return this;
+        }
+    }
 }
@@ -12,6 +12,13 @@ public class PolitenessEntry implements Serializable {
     private int delay;
     private int robotstxt_delay;
     private int configured_delay;
+    private int maxWait;
+    private int maxConcurrent;
+    private Policy policy = Policy.DELAY;
+    private double rate;
+    private int burst;
+    private int adaptive_delay;
+    private int latency;
 
     public PolitenessEntry() {
         super();
@@ -60,6 +67,75 @@ public class PolitenessEntry implements Serializable {
         return this;
     }
 
+    public int getMaxWait() {
+        return maxWait;
+    }
+
+    public PolitenessEntry setMaxWait(int maxWait) {
+        this.maxWait = maxWait;
+        return this;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public PolitenessEntry setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public PolitenessEntry setPolicy(Policy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * @return average number of requests per second, 0 if only the delay applies
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public PolitenessEntry setRate(double rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * @return number of requests which may be sent at once with {@link Policy#TOKEN_BUCKET}
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    public PolitenessEntry setBurst(int burst) {
+        this.burst = burst;
+        return this;
+    }
+
+    public int getAdaptive_delay() {
+        return adaptive_delay;
+    }
+
+    public PolitenessEntry setAdaptive_delay(int adaptive_delay) {
+        this.adaptive_delay = adaptive_delay;
+        return this;
+    }
+
+    public int getLatency() {
+        return latency;
+    }
+
+    public PolitenessEntry setLatency(int latency) {
+        this.latency = latency;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -88,6 +164,27 @@ public class PolitenessEntry implements Serializable {
                 ", delay=" + delay +
                 ", robotstxt_delay=" + robotstxt_delay +
                 ", configured_delay=" + configured_delay +
+                ", maxWait=" + maxWait +
+                ", maxConcurrent=" + maxConcurrent +
+                ", policy=" + policy +
+                ", rate=" + rate +
+                ", burst=" + burst +
+                ", adaptive_delay=" + adaptive_delay +
+                ", latency=" + latency +
                 '}';
     }
+
+    /**
+     * How requests to a domain are spread over time.
+     */
+    public enum Policy {
+        /**
+         * Fixed minimum gap (the delay) between two requests
+         */
+        DELAY,
+        /**
+         * Up to <tt>burst</tt> requests at once, on average one request per delay
+         */
+        TOKEN_BUCKET
+    }
 }
@@ -0,0 +1,152 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.http.conn.util.InetAddressUtils;
+import org.apache.http.conn.util.PublicSuffixMatcher;
+import org.apache.http.conn.util.PublicSuffixMatcherLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps hosts to the politeness group sharing one delay slot.
+ * <ul>
+ * <li><tt>host</tt>: every host is a group of its own (default)</li>
+ * <li><tt>domain</tt>: hosts are grouped by registrable domain, e.g. news.orf.at and
+ * sport.orf.at by orf.at, using the public suffix list shipped with HttpClient</li>
+ * <li><tt>ip</tt>: hosts are grouped by the address they resolve to</li>
+ * </ul>
+ * Lookups are kept in a bounded cache, so only the first request to a host pays for parsing
+ * or DNS resolution. Addresses are resolved again after the group TTL, hosts which could not
+ * be resolved after the shorter negative TTL. Concurrent requests to a host wait for a single
+ * lookup, which runs outside of the cache's locks so a slow resolver only delays its own host.
+ */
+@Component
+public class PolitenessGroups {
+
+    private static Logger log = LoggerFactory.getLogger(PolitenessGroups.class);
+    @Autowired
+    PolitenessConfiguration config;
+    private final ConcurrentHashMap<String, CompletableFuture<Group>> inFlight = new ConcurrentHashMap<>();
+    private volatile Cache<String, Group> groups;
+    private volatile PublicSuffixMatcher suffixMatcher;
+
+    /**
+     * Returns the politeness group of the given host.
+     *
+     * @param host Host in lower case
+     * @return key of the group, the host itself if it is not grouped
+     */
+    public String groupOf(String host) {
+        Grouping grouping = config.getGrouping();
+        if (grouping == Grouping.HOST) {
+            return host;
+        }
+        Group group = groups().getIfPresent(host);
+        if (group == null || group.isExpired()) {
+            group = load(host, grouping);
+        }
+        return group.key;
+    }
+
+    /**
+     * Resolves the address of a host, only called on a cache miss.
+     *
+     * @param host Host name
+     * @return IP address of the host
+     * @throws UnknownHostException if the host could not be resolved
+     */
+    protected String lookup(String host) throws UnknownHostException {
+        return InetAddress.getByName(host).getHostAddress();
+    }
+
+    private Cache<String, Group> groups() {
+        if (groups == null) {
+            synchronized (this) {
+                if (groups == null) {
+                    groups = Caffeine.newBuilder().maximumSize(config.getGroupCacheSize()).build();
+                }
+            }
+        }
+        return groups;
+    }
+
+    private Group load(String host, Grouping grouping) {
+        CompletableFuture<Group> lookup = new CompletableFuture<>();
+        CompletableFuture<Group> running = inFlight.putIfAbsent(host, lookup);
+        if (running != null) {
+            //Concurrent requests to a new host wait for one lookup
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            //The previous lookup may have completed after the cache was checked
+            Group group = groups().getIfPresent(host);
+            if (group == null || group.isExpired()) {
+                group = resolve(host, grouping);
+                groups().put(host, group);
+            }
+            lookup.complete(group);
+            return group;
+        } catch (RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(host, lookup);
+        }
+    }
+
+    private Group resolve(String host, Grouping grouping) {
+        if (InetAddressUtils.isIPv4Address(host) || InetAddressUtils.isIPv6Address(host)) {
+            return new Group(host, Long.MAX_VALUE);
+        }
+        if (grouping == Grouping.DOMAIN) {
+            String root = suffixMatcher().getDomainRoot(host);
+            return new Group(root == null ? host : root, Long.MAX_VALUE);
+        }
+        try {
+            return new Group(lookup(host), config.getGroupTtl());
+        } catch (UnknownHostException e) {
+            log.debug("Could not resolve " + host + ", using host as politeness group");
+            return new Group(host, config.getGroupNegativeTtl());
+        }
+    }
+
+    private PublicSuffixMatcher suffixMatcher() {
+        if (suffixMatcher == null) {
+            suffixMatcher = PublicSuffixMatcherLoader.getDefault();
+        }
+        return suffixMatcher;
+    }
+
+    public enum Grouping {
+        HOST, DOMAIN, IP
+    }
+
+    private static final class Group {
+        final String key;
+        final long expires;
+
+        Group(String key, long ttlMillis) {
+            this.key = key;
+            this.expires = ttlMillis == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS
+                    .toNanos(ttlMillis);
+        }
+
+        boolean isExpired() {
+            return expires != Long.MAX_VALUE && System.nanoTime() - expires > 0;
+        }
+    }
+}
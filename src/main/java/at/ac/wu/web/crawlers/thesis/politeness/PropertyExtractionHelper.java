@@ -28,6 +28,11 @@ public class PropertyExtractionHelper {
 
     private static Pattern p = Pattern.compile("politeness.domains\\[\\d\\].domain");
 
+    /**
+     * Options of a domain besides the delay.
+     */
+    static final List<String> OPTIONS = Arrays.asList("max-wait", "max-concurrent", "policy", "rate", "burst");
+
     /**
      * Extracts all properties from the given environment and builds a list
      * out of the relevant properties (politeness.domains[\d].*)
@@ -40,11 +45,21 @@ public class PropertyExtractionHelper {
         List<PolitenessEntry> list = new ArrayList<>();
         for (Map.Entry<String, Object> prop : properties.entrySet()) {
             if (p.matcher(prop.getKey()).matches()) {
-                Object value_delay = properties.get(getDelayKey(prop.getKey()));
+                Object value_delay = properties.get(getKey(prop.getKey(), "delay"));
+                Object value_rate = properties.get(getKey(prop.getKey(), "rate"));
                 try {
-                    int delay = Integer.parseInt(value_delay.toString());
+                    //A rate replaces the delay
+                    int delay = value_delay == null && value_rate != null ? 0 : Integer.parseInt(value_delay
+                                                                                                     .toString());
                     String domain = prop.getValue().toString();
-                    list.add(new PolitenessEntry(domain, delay, 0, delay));
+                    PolitenessEntry entry = new PolitenessEntry(domain, delay, 0, delay);
+                    for (String option : OPTIONS) {
+                        Object value = properties.get(getKey(prop.getKey(), option));
+                        if (value != null) {
+                            setOption(entry, option, value.toString());
+                        }
+                    }
+                    list.add(entry);
                 } catch (Exception ex) {
                     //do nothing
                     log.debug("An error occured parsing data for " + prop.getKey(), ex);
@@ -54,9 +69,34 @@ public class PropertyExtractionHelper {
         return list;
     }
 
-    private String getDelayKey(String key) {
+    /**
+     * Sets an option of a domain configured besides the delay.
+     *
+     * @param entry  Entry of the domain
+     * @param option Name of the option, one of {@link #OPTIONS}
+     * @param value  Value of the option
+     * @return the given entry
+     */
+    static PolitenessEntry setOption(PolitenessEntry entry, String option, String value) {
+        switch (option) {
+            case "max-wait":
+                return entry.setMaxWait(Integer.parseInt(value));
+            case "max-concurrent":
+                return entry.setMaxConcurrent(Integer.parseInt(value));
+            case "policy":
+                return entry.setPolicy(PolitenessEntry.Policy.valueOf(value.trim().toUpperCase().replace('-', '_')));
+            case "rate":
+                return entry.setRate(Double.parseDouble(value));
+            case "burst":
+                return entry.setBurst(Integer.parseInt(value));
+            default:
+                throw new IllegalArgumentException("Unknown politeness option " + option);
+        }
+    }
+
+    private String getKey(String key, String appendix) {
         String[] elements = key.split("\\.");
-        return elements[0] + "." + elements[1] + ".delay";
+        return elements[0] + "." + elements[1] + "." + appendix;
     }
 
 
@@ -0,0 +1,325 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds requests which have to wait for their politeness slot and releases them
+ * to a bounded pool of forwarding threads once the slot opens.
+ * <p>
+ * Waiting requests are kept in a {@link TimingWheel} and do not occupy a thread.
+ * Only active if <tt>politeness.delay-forward</tt> is enabled.
+ * <p>
+ * If the slots are shared fairly among clients, requests are not assigned a slot on
+ * arrival but queued per client. For each politeness group, the next client is picked
+ * whenever the previous slot starts (see {@link PolitenessCache#nextClient}).
+ * <p>
+ * Every request is either forwarded or rejected: requests still waiting when the scheduler
+ * shuts down, or whose task the forwarding threads do not accept, are rejected.
+ */
+@Component
+public class RequestScheduler implements InitializingBean, DisposableBean {
+
+    private static Logger log = LoggerFactory.getLogger(RequestScheduler.class);
+    private final ConcurrentHashMap<String, HostQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    @Autowired
+    PolitenessConfiguration config;
+    @Autowired
+    PolitenessCache politenessCache;
+    private ExecutorService executor;
+    private TimingWheel wheel;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!config.isDelayForward()) {
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(config.getForwardThreads(), r -> {
+            Thread thread = new Thread(r, "RequestScheduler.forward-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.wheel = new TimingWheel(config.getTick(), TimeUnit.MILLISECONDS, 512, this::execute,
+                                     "RequestScheduler.wheel");
+        log.debug("Delayed forwarding enabled with " + config.getForwardThreads() + " threads");
+    }
+
+    @Override
+    public void destroy() {
+        if (wheel != null) {
+            List<Runnable> unstarted = new ArrayList<>(wheel.stop());
+            unstarted.addAll(executor.shutdownNow());
+            for (Map.Entry<String, HostQueue> entry : queues.entrySet()) {
+                for (Queued queued : close(entry.getKey(), entry.getValue())) {
+                    unstarted.add(new Delayed(queued.task, queued.reject));
+                }
+            }
+            for (Runnable task : unstarted) {
+                reject(task);
+            }
+        }
+    }
+
+    /**
+     * @return true if requests violating the delay are held back instead of rejected
+     */
+    public boolean isEnabled() {
+        return wheel != null;
+    }
+
+    /**
+     * Runs the given task on a forwarding thread after the given delay.
+     *
+     * @param task       Task
+     * @param reject     Rejects the request, runs instead of the task if the task cannot be run
+     * @param delayNanos Delay in nanoseconds
+     */
+    public void schedule(Runnable task, Runnable reject, long delayNanos) {
+        waiting.incrementAndGet();
+        wheel.schedule(new Delayed(task, reject), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Queues a request to the given host until it is the client's turn and the next slot
+     * of the host opens.
+     *
+     * @param host     Host
+     * @param client   Client sending the request
+     * @param task     Forwards the request, runs once its slot has started
+     * @param reject   Rejects the request, runs if it is still queued at the deadline
+     * @param deadline Point in time ({@link System#nanoTime()}) the request is rejected
+     */
+    public void enqueue(String host, String client, Runnable task, Runnable reject, long deadline) {
+        String group = politenessCache.getGroup(host);
+        Queued queued = new Queued(task, reject, deadline);
+        waiting.incrementAndGet();
+        while (true) {
+            HostQueue queue = queues.computeIfAbsent(group, g -> new HostQueue(host));
+            boolean start;
+            synchronized (queue) {
+                if (queue.closed) {
+                    continue;
+                }
+                queue.add(client, queued);
+                start = !queue.dispatching;
+                queue.dispatching = true;
+            }
+            if (start) {
+                try {
+                    executor.execute(() -> dispatch(group, queue));
+                } catch (RejectedExecutionException e) {
+                    for (Queued rejected : close(group, queue)) {
+                        reject(new Delayed(rejected.task, rejected.reject));
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * @param host Host
+     * @return true if requests to the host are queued, new requests have to queue up as well
+     */
+    public boolean hasQueued(String host) {
+        return wheel != null && queues.containsKey(politenessCache.getGroup(host));
+    }
+
+    /**
+     * @return number of requests currently waiting for their slot
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Reserves the next slot of the group for the client whose turn it is and schedules
+     * the following dispatch for the start of this slot.
+     */
+    private void dispatch(String group, HostQueue queue) {
+        List<Queued> expired = new ArrayList<>();
+        Queued next = null;
+        long wait = 0L;
+        long retry = 0L;
+        synchronized (queue) {
+            long now = System.nanoTime();
+            queue.removeExpired(now, expired);
+            String client = politenessCache.nextClient(queue.host, queue.clients.keySet());
+            if (client == null) {
+                queue.closed = true;
+                queues.remove(group, queue);
+            } else {
+                wait = politenessCache.reserve(queue.host);
+                if (wait >= 0L) {
+                    next = queue.poll(client);
+                    politenessCache.served(queue.host, client, now + wait - next.enqueued);
+                } else {
+                    //The host asked to back off beyond the maximum wait, check again once it is over
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(politenessCache.getRemainingDelay(queue.host));
+                    retry = Math.max(TimeUnit.MILLISECONDS.toNanos(config.getTick()), Math.min(remaining, queue
+                            .earliestDeadline() - now));
+                }
+            }
+        }
+        waiting.addAndGet(-expired.size());
+        for (Queued queued : expired) {
+            queued.reject.run();
+        }
+        if (next != null) {
+            schedule(next.task, next.reject, wait);
+            waiting.decrementAndGet();
+            wheel.schedule(() -> dispatch(group, queue), wait, TimeUnit.NANOSECONDS);
+        } else if (retry > 0L) {
+            wheel.schedule(() -> dispatch(group, queue), retry, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Closes the queue of a group, its requests are not dispatched anymore.
+     *
+     * @return requests still queued
+     */
+    private List<Queued> close(String group, HostQueue queue) {
+        List<Queued> queued = new ArrayList<>();
+        synchronized (queue) {
+            queue.closed = true;
+            for (ArrayDeque<Queued> requests : queue.clients.values()) {
+                queued.addAll(requests);
+            }
+            queue.clients.clear();
+        }
+        queues.remove(group, queue);
+        return queued;
+    }
+
+    /**
+     * Hands a released task to the forwarding threads, rejects its request if they do not
+     * accept it.
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            reject(task);
+        }
+    }
+
+    private void reject(Runnable task) {
+        if (!(task instanceof Delayed)) {
+            return;
+        }
+        waiting.decrementAndGet();
+        try {
+            ((Delayed) task).reject.run();
+        } catch (RuntimeException e) {
+            log.error("Failed to reject waiting request", e);
+        }
+    }
+
+    /**
+     * Task of a waiting request together with its rejection.
+     */
+    private final class Delayed implements Runnable {
+        final Runnable task;
+        final Runnable reject;
+
+        Delayed(Runnable task, Runnable reject) {
+            this.task = task;
+            this.reject = reject;
+        }
+
+        @Override
+        public void run() {
+            waiting.decrementAndGet();
+            task.run();
+        }
+    }
+
+    private static final class Queued {
+        final Runnable task;
+        final Runnable reject;
+        final long deadline;
+        final long enqueued = System.nanoTime();
+
+        Queued(Runnable task, Runnable reject, long deadline) {
+            this.task = task;
+            this.reject = reject;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Requests waiting for one politeness group, in arrival order per client.
+     */
+    private static final class HostQueue {
+        final String host;
+        final Map<String, ArrayDeque<Queued>> clients = new LinkedHashMap<>();
+        boolean dispatching;
+        boolean closed;
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        void add(String client, Queued queued) {
+            clients.computeIfAbsent(client, c -> new ArrayDeque<>()).add(queued);
+        }
+
+        Queued poll(String client) {
+            ArrayDeque<Queued> requests = clients.get(client);
+            Queued queued = requests.poll();
+            if (requests.isEmpty()) {
+                clients.remove(client);
+            }
+            return queued;
+        }
+
+        void removeExpired(long now, List<Queued> expired) {
+            Iterator<ArrayDeque<Queued>> iterator = clients.values().iterator();
+            while (iterator.hasNext()) {
+                ArrayDeque<Queued> requests = iterator.next();
+                requests.removeIf(q -> {
+                    if (now - q.deadline > 0L) {
+                        expired.add(q);
+                        return true;
+                    }
+                    return false;
+                });
+                if (requests.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        long earliestDeadline() {
+            Long earliest = null;
+            for (ArrayDeque<Queued> requests : clients.values()) {
+                for (Queued queued : requests) {
+                    if (earliest == null || queued.deadline - earliest < 0L) {
+                        earliest = queued.deadline;
+                    }
+                }
+            }
+            return earliest;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package at.ac.wu.web.crawlers.thesis.politeness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel used to release delayed tasks once their time has come.
+ * <p>
+ * Scheduling is O(1) and does not block, a single worker thread advances the wheel
+ * every tick and hands expired tasks to the given executor. The precision is
+ * limited to the tick duration, tasks are never released early.
+ */
+public class TimingWheel {
+
+    private static Logger log = LoggerFactory.getLogger(TimingWheel.class);
+    private final long tickNanos;
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startTime;
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param tickDuration  duration of one tick
+     * @param unit          unit of the tick duration
+     * @param ticksPerWheel number of buckets, rounded up to the next power of two
+     * @param executor      executor running the expired tasks
+     * @param name          name of the worker thread
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor, String name) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickDuration and ticksPerWheel must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel - 1 > 0 ? ticksPerWheel - 1 : 1) << 1;
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules the given task to be run after the given delay.
+     *
+     * @param task  Task
+     * @param delay Delay
+     * @param unit  Unit of the delay
+     */
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("TimingWheel already stopped");
+        }
+        pending.incrementAndGet();
+        scheduled.add(new Timeout(task, System.nanoTime() + unit.toNanos(delay) - startTime));
+    }
+
+    /**
+     * @return number of tasks waiting to be run
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the worker thread, tasks not yet expired are not run anymore.
+     *
+     * @return tasks not yet released
+     */
+    public List<Runnable> stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> unreleased = new ArrayList<>();
+        for (List<Timeout> bucket : wheel) {
+            for (Timeout timeout : bucket) {
+                unreleased.add(timeout.task);
+            }
+            bucket.clear();
+        }
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            unreleased.add(timeout.task);
+        }
+        pending.addAndGet(-unreleased.size());
+        return unreleased;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                continue;
+            }
+            transferScheduled();
+            expire(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            //Tasks already overdue go into the current bucket
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long deadline) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                iterator.remove();
+                pending.decrementAndGet();
+                try {
+                    executor.execute(timeout.task);
+                } catch (Exception ex) {
+                    log.error("Failed to run expired task", ex);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    private static final class Timeout {
+        final Runnable task;
+        final long deadline;
+        long remainingRounds;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Patrick
@@ -10,21 +17,32 @@ public class HostDirectives {
     public static final int ALLOWED = 1;
     public static final int DISALLOWED = 2;
     public static final int UNDEFINED = 3;
-    // Refetch after 24hours
-    private static final long EXPIRATION = 24 * 60 * 1000L;
-    private final long timeFetched;
-    /** A list of rule sets, sorted on match with the configured user agent */
-    private Set<UserAgentDirectives> rules;
-    private long timeLastAccessed;
+    private static final int MAX_AGENT_VIEWS = 32;
+    private volatile long timeFetched;
+    private volatile long expires;
+    /** The rule sets in the order of the robots.txt */
+    private List<UserAgentDirectives> rules = new ArrayList<>();
+    /** Rules of the groups applying to the configured user agent, merged */
+    private volatile View effective;
+    /** Rules for other user agents, compiled on first use, the least used ones are dropped */
+    private volatile Cache<String, View> agentViews;
+    /** Agents matching the same groups share their rules */
+    private final Map<List<UserAgentDirectives>, View> groupViews = new ConcurrentHashMap<>();
+    private volatile long timeLastAccessed;
     private RobotstxtConfiguration config;
     private String userAgent;
+    private String etag;
+    private String lastModified;
+    /** Consecutive failed fetches, 0 once the robots.txt was read */
+    private volatile int failures;
+    /** No robots.txt could be read because the host failed, everything is disallowed */
+    private boolean unreachable;
 
     public HostDirectives(RobotstxtConfiguration configuration) {
         timeFetched = System.currentTimeMillis();
         config = configuration;
+        expires = timeFetched + config.getExpiration();
         userAgent = config.getUserAgentName().toLowerCase();
-        rules = new TreeSet<>(
-                new UserAgentDirectives.UserAgentComparator(userAgent));
     }
 
     /**
@@ -33,7 +51,17 @@ public class HostDirectives {
      * @return True if the robots.txt must be refetched.
      */
     public boolean needsRefetch() {
-        return ((System.currentTimeMillis() - timeFetched) > EXPIRATION);
+        return System.currentTimeMillis() >= expires;
+    }
+
+    /**
+     * Checks if expired directives may still be used while they are refreshed.
+     *
+     * @param maxStale Time in milliseconds the directives may be used after they expired
+     * @return True if the directives expired less than maxStale ago
+     */
+    public boolean isServable(long maxStale) {
+        return System.currentTimeMillis() < expires + maxStale;
     }
 
     /**
@@ -46,6 +74,17 @@ public class HostDirectives {
         return checkAccess(path) != DISALLOWED;
     }
 
+    /**
+     * Check if the given path is allowed for a user agent.
+     *
+     * @param path      The path
+     * @param userAgent User agent, null for the configured one
+     * @return True if the path is allowed, false if it is disallowed
+     */
+    public boolean allows(String path, String userAgent) {
+        return checkAccess(path, userAgent) != DISALLOWED;
+    }
+
     /**
      * Check access for the given path.
      *
@@ -53,38 +92,263 @@ public class HostDirectives {
      * @return ALLOWED, DISALLOWED or UNDEFINED
      */
     public int checkAccess(String path) {
+        return checkAccess(path, null);
+    }
+
+    /**
+     * Check access for the given path and user agent.
+     *
+     * @param path      The path to check
+     * @param userAgent User agent, null for the configured one
+     * @return ALLOWED, DISALLOWED or UNDEFINED
+     */
+    public int checkAccess(String path, String userAgent) {
         timeLastAccessed = System.currentTimeMillis();
-        int result = UNDEFINED;
-        String myUA = config.getUserAgentName();
+        if (unreachable) {
+            return DISALLOWED;
+        }
+        return view(userAgent).matcher.checkAccess(path.isEmpty() ? "/" : path);
+    }
 
-        for (UserAgentDirectives ua : rules) {
-            int score = ua.match(myUA);
+    /**
+     * Checks several paths at once, resolving the rules of the user agent only once.
+     *
+     * @param paths     The paths
+     * @param userAgent User agent, null for the configured one
+     * @return for each path, True if it is allowed
+     */
+    public boolean[] allows(List<String> paths, String userAgent) {
+        timeLastAccessed = System.currentTimeMillis();
+        boolean[] allowed = new boolean[paths.size()];
+        if (unreachable) {
+            return allowed;
+        }
+        RuleMatcher matcher = view(userAgent).matcher;
+        for (int i = 0; i < allowed.length; i++) {
+            String path = paths.get(i);
+            allowed[i] = matcher.checkAccess(path.isEmpty() ? "/" : path) != DISALLOWED;
+        }
+        return allowed;
+    }
 
-            // If the user agent is different or not ignored, end here
-            if (score == 0) {
-                break;
+    public void addDirectives(UserAgentDirectives directives) {
+        if (directives != null) {
+            rules.add(directives);
+            this.effective = null;
+            this.agentViews = null;
+            groupViews.clear();
+        }
+    }
+
+    /**
+     * Resolves the groups applying to the configured user agent, done once after parsing.
+     *
+     * @return merged rules of the applying groups
+     */
+    public RuleMatcher compile() {
+        return view(null).matcher;
+    }
+
+    /**
+     * @return crawl delay in seconds of the groups applying to the configured user agent,
+     * null if they do not specify one
+     */
+    public Double getCrawlDelay() {
+        return getCrawlDelay(null);
+    }
+
+    /**
+     * @param userAgent User agent, null for the configured one
+     * @return crawl delay in seconds of the groups applying to the user agent, null if they
+     * do not specify one
+     */
+    public Double getCrawlDelay(String userAgent) {
+        return view(userAgent).crawlDelay;
+    }
+
+    private View view(String agent) {
+        if (agent == null || agent.equalsIgnoreCase(userAgent)) {
+            View view = effective;
+            if (view == null) {
+                view = compile(userAgent);
+                this.effective = view;
             }
-            result = ua.checkAccess(path, userAgent);
-            if (result != DISALLOWED) {
-                break;
+            return view;
+        }
+        Cache<String, View> views = agentViews;
+        if (views == null) {
+            //Most hosts are only checked for the configured user agent
+            synchronized (this) {
+                views = agentViews;
+                if (views == null) {
+                    views = Caffeine.newBuilder().maximumSize(MAX_AGENT_VIEWS).executor(Runnable::run).build();
+                    this.agentViews = views;
+                }
             }
         }
-        return result;
+        return views.get(agent, a -> compile(a.toLowerCase()));
     }
 
-    public void addDirectives(UserAgentDirectives directives) {
-        rules.add(directives);
+    /**
+     * Only the groups naming the agent most specifically apply, with the rules of all of
+     * them merged (RFC 9309). If no group names the agent, the <tt>*</tt> groups apply.
+     */
+    private View compile(String agent) {
+        int best = 0;
+        List<UserAgentDirectives> groups = new ArrayList<>();
+        for (UserAgentDirectives ua : rules) {
+            int score = ua.match(agent);
+            if (score == 0 || score < best) {
+                continue;
+            }
+            if (score > best) {
+                best = score;
+                groups.clear();
+            }
+            groups.add(ua);
+        }
+        return groupViews.computeIfAbsent(groups, View::new);
+    }
+
+    /**
+     * @return sitemaps listed in the robots.txt, which apply to all user agents
+     */
+    public List<String> getSitemaps() {
+        Set<String> sitemaps = new LinkedHashSet<>();
+        for (UserAgentDirectives directives : rules) {
+            if (directives.getSitemap() != null) {
+                sitemaps.addAll(directives.getSitemap());
+            }
+        }
+        return new ArrayList<>(sitemaps);
+    }
+
+    /**
+     * Estimates the memory used by these directives, used to bound the cache in bytes.
+     *
+     * @return estimated size in bytes
+     */
+    public int getEstimatedSize() {
+        int size = 128;
+        for (UserAgentDirectives directives : rules) {
+            size += directives.getEstimatedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Writes these directives back in robots.txt syntax, leaving out comments, unknown lines
+     * and markup, so they can be stored and parsed again.
+     *
+     * @return compact robots.txt
+     */
+    public String toRobotstxt() {
+        StringBuilder out = new StringBuilder();
+        for (UserAgentDirectives directives : rules) {
+            directives.write(out);
+        }
+        return out.toString();
+    }
+
+    public long getTimeFetched() {
+        return timeFetched;
+    }
+
+    public HostDirectives setTimeFetched(long timeFetched) {
+        this.timeFetched = timeFetched;
+        return this;
+    }
+
+    /**
+     * @return point in time (milliseconds since the epoch) the robots.txt must be refetched
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    public HostDirectives setExpires(long expires) {
+        this.expires = expires;
+        return this;
+    }
+
+    /**
+     * @return ETag of the robots.txt response, null if there was none
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public HostDirectives setEtag(String etag) {
+        this.etag = etag;
+        return this;
+    }
+
+    /**
+     * @return Last-Modified header of the robots.txt response, null if there was none
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public HostDirectives setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    /**
+     * @return number of fetches failed in a row since the robots.txt was last read
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    public HostDirectives setFailures(int failures) {
+        this.failures = failures;
+        return this;
+    }
+
+    /**
+     * @return True if the host never answered with a robots.txt, so all paths are disallowed
+     */
+    public boolean isUnreachable() {
+        return unreachable;
+    }
+
+    public HostDirectives setUnreachable(boolean unreachable) {
+        this.unreachable = unreachable;
+        return this;
     }
 
     public long getLastAccessTime() {
         return timeLastAccessed;
     }
 
-    public Set<UserAgentDirectives> getRules() {
+    public List<UserAgentDirectives> getRules() {
         return rules;
     }
 
     public String getUserAgent() {
         return userAgent;
     }
+
+    /**
+     * Merged rules and crawl delay of the groups applying to a user agent.
+     */
+    private static final class View {
+        final RuleMatcher matcher;
+        final Double crawlDelay;
+
+        View(List<UserAgentDirectives> groups) {
+            List<Rule> merged = new ArrayList<>();
+            Double delay = null;
+            for (UserAgentDirectives ua : groups) {
+                merged.addAll(ua.getPathRules());
+                if (ua.getCrawlDelay() != null && (delay == null || ua.getCrawlDelay() > delay)) {
+                    delay = ua.getCrawlDelay();
+                }
+            }
+            this.matcher = new RuleMatcher(merged);
+            this.crawlDelay = delay;
+        }
+    }
 }
@@ -3,6 +3,10 @@ package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 @Component
 @ConfigurationProperties
 public class RobotstxtConfiguration {
@@ -17,10 +21,122 @@ public class RobotstxtConfiguration {
      */
     private String userAgentName = "wu-is-crawler";
 
+    /**
+     * Request header naming the crawler a request is sent for, e.g. User-Agent. If set, the
+     * robots.txt rules for that crawler apply instead of the ones for the user-agent name.
+     */
+    private String userAgentHeader = null;
+
+    /**
+     * Maps values of the user agent header to the user agent tokens looked up in robots.txt
+     * files, unmapped values are looked up as they are.
+     */
+    private Map<String, String> userAgents = new HashMap<>();
+
     /**
      * The maximum number of hosts for which their robots.txt is cached.
      */
-    private int cacheSize = 500;
+    private int cacheSize = 100_000;
+
+    /**
+     * The maximum estimated memory in bytes of the cached robots.txt directives,
+     * replaces the cache size if set.
+     */
+    private long cacheMaxBytes = 0;
+
+    /**
+     * Time in milliseconds until a robots.txt is requested again after the host failed
+     * to answer, doubled with every further failure.
+     */
+    private long failureExpiration = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Upper bound in milliseconds for the time between requests to a failing host.
+     */
+    private long maxFailureExpiration = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Connect and read timeout in milliseconds of robots.txt requests.
+     */
+    private int fetchTimeout = 10_000;
+
+    /**
+     * Number of bytes of a robots.txt that are parsed, the rest is ignored.
+     */
+    private int maxBytes = 500 * 1024;
+
+    /**
+     * Time in milliseconds a robots.txt is used before it is revalidated, if its response
+     * does not say otherwise.
+     */
+    private long expiration = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * Lower bound in milliseconds for lifetimes given by Cache-Control or Expires.
+     */
+    private long minExpiration = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Upper bound in milliseconds for lifetimes given by Cache-Control or Expires.
+     */
+    private long maxExpiration = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * Time in milliseconds expired directives are still used while they are refreshed in the
+     * background, afterwards requests wait for the refresh.
+     */
+    private long staleWhileRevalidate = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Number of threads refreshing expired robots.txt files in the background.
+     */
+    private int refreshThreads = 2;
+
+    /**
+     * The maximum number of background refreshes waiting for a thread.
+     */
+    private int refreshQueueSize = 1000;
+
+    /**
+     * Number of threads resolving the robots.txt files of a host list before a crawl.
+     */
+    private int prefetchThreads = 16;
+
+    /**
+     * Number of threads checking the hosts of a large URL batch in parallel.
+     */
+    private int batchThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Minimum number of hosts in a URL batch to check them in parallel.
+     */
+    private int batchParallelHosts = 4;
+
+    /**
+     * The maximum number of sitemaps read when the sitemaps of a host are expanded.
+     */
+    private int maxSitemaps = 1000;
+
+    /**
+     * Number of (uncompressed) bytes of a sitemap that are parsed, 50 MiB as allowed by the
+     * sitemap protocol.
+     */
+    private long maxSitemapBytes = 50L * 1024 * 1024;
+
+    /**
+     * Number of sitemap expansions streamed to clients at the same time.
+     */
+    private int sitemapThreads = 8;
+
+    /**
+     * Time in milliseconds after which the expansion of the sitemaps of a host stops.
+     */
+    private long sitemapTimeout = 600_000;
+
+    /**
+     * Store of fetched robots.txt directives, configured under <tt>robotstxt.*</tt>.
+     */
+    private Store robotstxt = new Store();
 
     public boolean isEnabled() {
         return enabled;
@@ -38,6 +154,36 @@ public class RobotstxtConfiguration {
         this.userAgentName = userAgentName;
     }
 
+    public String getUserAgentHeader() {
+        return userAgentHeader;
+    }
+
+    public void setUserAgentHeader(String userAgentHeader) {
+        this.userAgentHeader = userAgentHeader;
+    }
+
+    public Map<String, String> getUserAgents() {
+        return userAgents;
+    }
+
+    public void setUserAgents(Map<String, String> userAgents) {
+        this.userAgents = userAgents;
+    }
+
+    /**
+     * Determines the user agent whose robots.txt rules apply to a request.
+     *
+     * @param headerValue Value of the user agent header of the request, may be null
+     * @return mapped user agent, the user-agent name if the request does not name one
+     */
+    public String resolveUserAgent(String headerValue) {
+        if (headerValue == null || headerValue.isEmpty()) {
+            return userAgentName;
+        }
+        String mapped = userAgents.get(headerValue);
+        return mapped == null ? headerValue : mapped;
+    }
+
     public int getCacheSize() {
         return cacheSize;
     }
@@ -45,4 +191,235 @@ public class RobotstxtConfiguration {
     public void setCacheSize(int cacheSize) {
         this.cacheSize = cacheSize;
     }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(long expiration) {
+        this.expiration = expiration;
+    }
+
+    public long getMinExpiration() {
+        return minExpiration;
+    }
+
+    public void setMinExpiration(long minExpiration) {
+        this.minExpiration = minExpiration;
+    }
+
+    public long getMaxExpiration() {
+        return maxExpiration;
+    }
+
+    public void setMaxExpiration(long maxExpiration) {
+        this.maxExpiration = maxExpiration;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    public void setRefreshThreads(int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
+
+    public int getRefreshQueueSize() {
+        return refreshQueueSize;
+    }
+
+    public void setRefreshQueueSize(int refreshQueueSize) {
+        this.refreshQueueSize = refreshQueueSize;
+    }
+
+    public long getFailureExpiration() {
+        return failureExpiration;
+    }
+
+    public void setFailureExpiration(long failureExpiration) {
+        this.failureExpiration = failureExpiration;
+    }
+
+    public long getMaxFailureExpiration() {
+        return maxFailureExpiration;
+    }
+
+    public void setMaxFailureExpiration(long maxFailureExpiration) {
+        this.maxFailureExpiration = maxFailureExpiration;
+    }
+
+    /**
+     * Exponential backoff after failed robots.txt requests.
+     *
+     * @param failures number of requests failed in a row
+     * @return time in milliseconds until the next request
+     */
+    public long getFailureBackoff(int failures) {
+        long backoff = failureExpiration << Math.min(Math.max(failures - 1, 0), 20);
+        return Math.min(maxFailureExpiration, backoff);
+    }
+
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    public void setPrefetchThreads(int prefetchThreads) {
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    public int getBatchThreads() {
+        return batchThreads;
+    }
+
+    public void setBatchThreads(int batchThreads) {
+        this.batchThreads = batchThreads;
+    }
+
+    public int getBatchParallelHosts() {
+        return batchParallelHosts;
+    }
+
+    public void setBatchParallelHosts(int batchParallelHosts) {
+        this.batchParallelHosts = batchParallelHosts;
+    }
+
+    public int getMaxSitemaps() {
+        return maxSitemaps;
+    }
+
+    public void setMaxSitemaps(int maxSitemaps) {
+        this.maxSitemaps = maxSitemaps;
+    }
+
+    public long getMaxSitemapBytes() {
+        return maxSitemapBytes;
+    }
+
+    public void setMaxSitemapBytes(long maxSitemapBytes) {
+        this.maxSitemapBytes = maxSitemapBytes;
+    }
+
+    public int getSitemapThreads() {
+        return sitemapThreads;
+    }
+
+    public void setSitemapThreads(int sitemapThreads) {
+        this.sitemapThreads = sitemapThreads;
+    }
+
+    public long getSitemapTimeout() {
+        return sitemapTimeout;
+    }
+
+    public void setSitemapTimeout(long sitemapTimeout) {
+        this.sitemapTimeout = sitemapTimeout;
+    }
+
+    public int getFetchTimeout() {
+        return fetchTimeout;
+    }
+
+    public void setFetchTimeout(int fetchTimeout) {
+        this.fetchTimeout = fetchTimeout;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public Store getRobotstxt() {
+        return robotstxt;
+    }
+
+    public void setRobotstxt(Store robotstxt) {
+        this.robotstxt = robotstxt;
+    }
+
+    /**
+     * Configuration of the {@link RobotstxtStore} keeping fetched directives on disk.
+     */
+    public static class Store {
+
+        /**
+         * Should fetched robots.txt directives be stored on disk and reused after a restart?
+         */
+        private boolean persistent = true;
+
+        /**
+         * Directory of the robots.txt store.
+         */
+        private String directory = System.getProperty("java.io.tmpdir");
+
+        /**
+         * The maximum number of stored hosts the store keeps in memory besides the cache.
+         */
+        private long memory = 10_000L;
+
+        /**
+         * Time in milliseconds after which stored directives are removed from disk.
+         */
+        private long lifespan = TimeUnit.DAYS.toMillis(7);
+
+        private String jmxDomain = "robotsCache";
+
+        public boolean isPersistent() {
+            return persistent;
+        }
+
+        public void setPersistent(boolean persistent) {
+            this.persistent = persistent;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getMemory() {
+            return memory;
+        }
+
+        public void setMemory(long memory) {
+            this.memory = memory;
+        }
+
+        public long getLifespan() {
+            return lifespan;
+        }
+
+        public void setLifespan(long lifespan) {
+            this.lifespan = lifespan;
+        }
+
+        public String getJmxDomain() {
+            return jmxDomain;
+        }
+
+        public void setJmxDomain(String jmxDomain) {
+            this.jmxDomain = jmxDomain;
+        }
+    }
 }
@@ -2,64 +2,145 @@ package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
 
 import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
 import at.ac.wu.web.crawlers.thesis.politeness.DomainDelayCache;
-import com.google.common.io.ByteSource;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.io.CountingInputStream;
+import org.apache.http.Header;
 import org.apache.http.HttpHost;
-import org.apache.http.HttpRequest;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
 
-import java.io.IOException;
-import java.io.InputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Patrick
  */
 @Configuration
-public class RobotstxtHandler {
+public class RobotstxtHandler implements InitializingBean, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(RobotstxtHandler.class);
-    protected final Map<String, HostDirectives> host2directivesCache = new HashMap<>();
-    private final int maxBytes = 16384;
+    protected Cache<String, HostDirectives> host2directivesCache;
+    private final ConcurrentHashMap<String, CompletableFuture<HostDirectives>> inFlight = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor refreshExecutor;
+    private ExecutorService prefetchExecutor;
+    private ForkJoinPool batchPool;
+    private volatile RobotstxtPrefetch lastPrefetch;
     @Autowired
     HttpUtils httpUtils;
     @Autowired
-    RobotstxtConfiguration config;
+    protected RobotstxtConfiguration config;
     @Autowired
     DomainDelayCache delayCache;
+    @Autowired
+    RobotstxtStore store;
+    @Autowired
+    CounterService counterService;
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger threads = new AtomicInteger();
+        this.refreshExecutor = new ThreadPoolExecutor(config.getRefreshThreads(), config.getRefreshThreads(), 0L,
+                                                      TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "RobotstxtHandler.refresh-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        //Checks may block on robots.txt fetches, so they get their own pool instead of the common one
+        this.batchPool = new ForkJoinPool(config.getBatchThreads());
+        AtomicInteger prefetchThreads = new AtomicInteger();
+        this.prefetchExecutor = Executors.newFixedThreadPool(config.getPrefetchThreads(), r -> {
+            Thread thread = new Thread(r, "RobotstxtHandler.prefetch-" + prefetchThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        //W-TinyLFU keeps frequently requested hosts over a burst of hosts requested once
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+        if (config.getCacheMaxBytes() > 0) {
+            this.host2directivesCache = builder.maximumWeight(config.getCacheMaxBytes())
+                    .weigher((String host, HostDirectives directives) -> directives.getEstimatedSize())
+                    .build();
+        } else {
+            this.host2directivesCache = builder.maximumSize(config.getCacheSize()).build();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+        prefetchExecutor.shutdownNow();
+        batchPool.shutdownNow();
+    }
+
+    /**
+     * @return hit, miss and eviction counts of the directive cache
+     */
+    public CacheStats getStats() {
+        return host2directivesCache.stats();
+    }
+
+    /**
+     * @return number of hosts whose directives are cached
+     */
+    public long size() {
+        return host2directivesCache.estimatedSize();
+    }
 
     private static String getHost(URL url) {
         return url.getHost().toLowerCase();
     }
 
     public boolean allows(URL url) {
+        return allows(url, null);
+    }
+
+    /**
+     * Checks the URL against the robots.txt rules for the given user agent. All user agents
+     * share the fetched robots.txt of a host.
+     *
+     * @param url       URL
+     * @param userAgent User agent, null for the configured user-agent name
+     * @return True if the URL may be crawled
+     */
+    public boolean allows(URL url, String userAgent) {
         if (!config.isEnabled()) {
             return true;
         }
         try {
-            String host = getHost(url);
-            String path = url.getPath();
-
-            HostDirectives directives = host2directivesCache.get(host);
-
-            if (directives != null && directives.needsRefetch()) {
-                synchronized (host2directivesCache) {
-                    host2directivesCache.remove(host);
-                    directives = null;
-                }
-            }
-            if (directives == null) {
-                directives = fetchDirectives(url);
-            }
-            return directives.allows(path);
+            return getDirectives(url).allows(url.getPath(), userAgent);
         } catch (Exception e) {
             logger.error("Bad URL in Robots.txt: " + url, e);
         }
@@ -68,82 +149,442 @@ public class RobotstxtHandler {
         return true;
     }
 
-    private HostDirectives fetchDirectives(URL url) {
+    /**
+     * Checks many URLs at once. The URLs are grouped by host, the directives of each host are
+     * looked up once and all of its paths are checked against them. Batches with many hosts
+     * are checked in parallel.
+     *
+     * @param urls      URLs
+     * @param userAgent User agent, null for the configured user-agent name
+     * @return for each URL, True if it may be crawled
+     */
+    public boolean[] allows(List<URL> urls, String userAgent) {
+        boolean[] allowed = new boolean[urls.size()];
+        if (!config.isEnabled()) {
+            Arrays.fill(allowed, true);
+            return allowed;
+        }
+        Map<String, List<Integer>> byHost = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            byHost.computeIfAbsent(getHost(urls.get(i)), h -> new ArrayList<>()).add(i);
+        }
+        if (byHost.size() < config.getBatchParallelHosts()) {
+            byHost.values().forEach(indexes -> allows(urls, indexes, userAgent, allowed));
+        } else {
+            //Each host writes its own indexes of the result
+            batchPool.submit(() -> byHost.values().parallelStream()
+                    .forEach(indexes -> allows(urls, indexes, userAgent, allowed))).join();
+        }
+        return allowed;
+    }
+
+    private void allows(List<URL> urls, List<Integer> indexes, String userAgent, boolean[] allowed) {
+        URL first = urls.get(indexes.get(0));
+        List<String> paths = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            paths.add(urls.get(index).getPath());
+        }
+        boolean[] result;
+        try {
+            result = getDirectives(first).allows(paths, userAgent);
+        } catch (Exception e) {
+            logger.error("Bad URL in Robots.txt: " + first, e);
+            //default: allow
+            result = new boolean[paths.size()];
+            Arrays.fill(result, true);
+        }
+        for (int i = 0; i < result.length; i++) {
+            allowed[indexes.get(i)] = result[i];
+        }
+    }
+
+    /**
+     * @param request Incoming request
+     * @return user agent whose robots.txt rules apply to the request, see
+     * {@link RobotstxtConfiguration#resolveUserAgent(String)}
+     */
+    public String getUserAgent(HttpServletRequest request) {
+        String header = config.getUserAgentHeader();
+        return config.resolveUserAgent(header == null ? null : request.getHeader(header));
+    }
+
+    /**
+     * Returns the cached directives of the URL's host or fetches them. Concurrent callers
+     * missing the same host wait for a single fetch instead of requesting the robots.txt
+     * themselves. Expired directives are still returned for a while and refreshed in the
+     * background.
+     *
+     * @param url URL
+     * @return directives of the host
+     */
+    public HostDirectives getDirectives(URL url) {
+        String host = getHost(url);
+        HostDirectives directives = host2directivesCache.getIfPresent(host);
+        if (directives != null && !directives.needsRefetch()) {
+            return directives;
+        }
+        if (directives != null && directives.isServable(config.getStaleWhileRevalidate())) {
+            refreshInBackground(url, host, directives);
+            return directives;
+        }
+        return load(url, host);
+    }
+
+    /**
+     * Loads the directives of the host from the store or fetches them, once for all concurrent callers.
+     */
+    private HostDirectives load(URL url, String host) {
+        HostDirectives directives;
+        CompletableFuture<HostDirectives> fetch = new CompletableFuture<>();
+        CompletableFuture<HostDirectives> running = inFlight.putIfAbsent(host, fetch);
+        if (running != null) {
+            if (running instanceof Refresh && ((Refresh) running).start()) {
+                //A queued refresh would keep the caller waiting for all refreshes before it
+                refreshExecutor.remove((Refresh) running);
+                ((Refresh) running).fetch();
+            }
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            //The previous fetch may have completed after the cache was checked
+            directives = host2directivesCache.getIfPresent(host);
+            if (directives == null && config.getRobotstxt().isPersistent()) {
+                //Directives fetched before the last restart
+                directives = store.load(host);
+            }
+            if (directives == null || directives.needsRefetch()) {
+                directives = refresh(url, host, directives);
+            } else {
+                host2directivesCache.put(host, directives);
+            }
+            fetch.complete(directives);
+            return directives;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(host, fetch);
+        }
+    }
+
+    private HostDirectives refresh(URL url, String host, HostDirectives previous) {
+        HostDirectives directives = fetchDirectives(url, previous);
+        //Failures are only cached in memory, the store keeps the last robots.txt read
+        if (config.getRobotstxt().isPersistent() && directives.getFailures() == 0) {
+            store.save(host, directives);
+        }
+        host2directivesCache.put(host, directives);
+        return directives;
+    }
+
+    /**
+     * Resolves the robots.txt of the given hosts in the background, so the first requests of a crawl
+     * do not wait for them. The hosts are worked off by a fixed number of threads, each host once;
+     * directives still valid in the cache are kept. Hosts may be given as URL, otherwise http is used;
+     * like the cache, a host given with several protocols or ports is resolved once.
+     *
+     * @param hosts Host names or URLs
+     * @return progress of the prefetch
+     */
+    public RobotstxtPrefetch prefetch(Collection<String> hosts) {
+        Map<String, URL> urls = new LinkedHashMap<>();
+        int invalid = 0;
+        for (String host : hosts) {
+            try {
+                URL url = new URL(host.contains("://") ? host.trim() : "http://" + host.trim());
+                urls.putIfAbsent(getHost(url), url);
+            } catch (MalformedURLException e) {
+                logger.debug("Invalid host to prefetch: {}", host);
+                invalid++;
+            }
+        }
+        RobotstxtPrefetch prefetch = new RobotstxtPrefetch(urls.size() + invalid);
+        for (int i = 0; i < invalid; i++) {
+            prefetch.failed();
+        }
+        Queue<URL> queue = new ConcurrentLinkedQueue<>(urls.values());
+        for (int i = 0; i < Math.min(config.getPrefetchThreads(), queue.size()); i++) {
+            prefetchExecutor.execute(() -> {
+                URL url;
+                while ((url = queue.poll()) != null) {
+                    prefetch(url, prefetch);
+                }
+            });
+        }
+        this.lastPrefetch = prefetch;
+        return prefetch;
+    }
+
+    private void prefetch(URL url, RobotstxtPrefetch prefetch) {
+        String host = getHost(url);
+        HostDirectives cached = host2directivesCache.getIfPresent(host);
+        if (cached != null && !cached.needsRefetch()) {
+            prefetch.cached();
+            return;
+        }
+        try {
+            if (load(url, host).getFailures() > 0) {
+                prefetch.failed();
+            } else {
+                prefetch.fetched();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to prefetch robots.txt of {}: {}", host, e.toString());
+            prefetch.failed();
+        }
+    }
+
+    /**
+     * @return progress of the last prefetch, an empty one if there was none
+     */
+    public RobotstxtPrefetch getLastPrefetch() {
+        RobotstxtPrefetch prefetch = lastPrefetch;
+        return prefetch == null ? new RobotstxtPrefetch(0) : prefetch;
+    }
+
+    /**
+     * Returns the sitemaps listed in the robots.txt of the URL's host, fetched only if the
+     * directives of the host are not cached.
+     *
+     * @param url URL of the host
+     * @return sitemap URLs, empty if there are none
+     */
+    public List<String> getSitemaps(URL url) {
+        return getDirectives(url).getSitemaps();
+    }
+
+    /**
+     * Queues a refresh of expired directives unless one is already running. Hosts accessed
+     * recently before are refreshed first, if the queue is full the refresh is skipped and
+     * tried again with the next request.
+     */
+    private void refreshInBackground(URL url, String host, HostDirectives stale) {
+        Refresh refresh = new Refresh(url, host, stale);
+        if (inFlight.putIfAbsent(host, refresh) != null) {
+            return;
+        }
+        try {
+            if (refreshExecutor.getQueue().size() >= config.getRefreshQueueSize()) {
+                throw new RejectedExecutionException("refresh queue full");
+            }
+            refreshExecutor.execute(refresh);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Refresh of robots.txt of {} skipped: {}", host, e.getMessage());
+            if (refresh.start()) {
+                refresh.complete(stale);
+                inFlight.remove(host, refresh);
+            }
+        }
+    }
+
+    /**
+     * Requests and parses the robots.txt of the URL's host, called by only one thread per host at a time.
+     * Expired directives are revalidated with the validators of their response, if the robots.txt did
+     * not change they are kept and only their expiry is extended.
+     * <p>
+     * Status codes are handled as in RFC 9309: a missing robots.txt (4xx) allows everything, server
+     * errors, 429 and network failures make the host unreachable, see {@link #unreachable}.
+     *
+     * @param url      URL
+     * @param previous Expired directives of the host, null if there are none
+     * @return directives of the host, empty ones if there is no robots.txt
+     */
+    protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
         String host = getHost(url);
         String port = ((url.getPort() == url.getDefaultPort()) || (url.getPort() == -1)) ? "" :
                 (":" + url.getPort());
         String proto = url.getProtocol();
 
         HostDirectives directives = null;
+        boolean failed = false;
+        long now = System.currentTimeMillis();
+        long expiration = config.getExpiration();
+        counterService.increment(previous == null ? "counter.robots.fetched" : "counter.robots.refetched");
         try {
             URL robotsUrl = new URL(proto + "://" + host + port + "/robots.txt");
 
+            //An HttpGet can be aborted, so the rest of an oversized robots.txt is never read
+            HttpGet httpRequest = new HttpGet(robotsUrl.toString());
+            if (previous != null && previous.getEtag() != null) {
+                httpRequest.setHeader(HttpHeaders.IF_NONE_MATCH, previous.getEtag());
+            }
+            if (previous != null && previous.getLastModified() != null) {
+                httpRequest.setHeader(HttpHeaders.IF_MODIFIED_SINCE, previous.getLastModified());
+            }
             HttpHost httpHost = httpUtils.getHttpHost(robotsUrl);
-            HttpRequest httpRequest = httpUtils.buildHttpRequest("GET", robotsUrl.toString(), null, new HttpHeaders()
-                    , new HttpHeaders(), null);
-            CloseableHttpResponse httpResponse = httpUtils.getHttpClient().execute(httpHost, httpRequest);
-
-            if (httpResponse.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                String contentType = httpResponse.getFirstHeader("content-type") != null ? httpResponse
-                        .getFirstHeader("content-type").getValue() : "";
-                ByteSource source = new ByteSource() {
-                    @Override
-                    public InputStream openStream() throws IOException {
-                        return httpResponse.getEntity().getContent();
-                    }
-                };
-                if (contentType.contains("text") && !contentType.contains("html")) {
-                    String content;
-                    if (httpResponse.getFirstHeader("content-charset") == null) {
-                        content = source.asCharSource(Charset.forName("UTF-8")).read();
-                    } else {
-                        content = source.asCharSource(Charset.forName(httpResponse.getFirstHeader("content-charset")
-                                                                              .getValue())).read();
-                    }
-                    directives = RobotstxtParser.parse(content, config);
-                } else if (contentType.contains("html")) {
-                    // html tags
-                    String content = source.asCharSource(Charset.forName("UTF-8")).read();
-                    directives = RobotstxtParser.parse(content, config);
-                } else {
-                    logger.warn(
-                            "Can't read this robots.txt: {}  as it is not written in plain text, " +
-                                    "contentType: {}", url, contentType);
+            try (CloseableHttpResponse httpResponse = httpUtils.getHttpClient().execute(
+                    httpHost, httpRequest, HttpUtils.timeoutContext(config.getFetchTimeout()))) {
+                expiration = getExpiration(httpResponse, now);
+                int status = httpResponse.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_NOT_MODIFIED && previous != null) {
+                    counterService.increment("counter.robots.not-modified");
+                    logger.debug("Robots.txt of {} not modified, valid for another {} ms", host, expiration);
+                    return previous.setTimeFetched(now).setExpires(now + expiration).setFailures(0);
                 }
-                if (directives != null && directives.getRules() != null) {
-                    for (UserAgentDirectives uad : directives.getRules()) {
-                        if (uad.match(directives.getUserAgent()) != 0 && uad.getCrawlDelay() != null) {
-                            delayCache.updateRobotsDelay(host, uad.getCrawlDelay());
+                if (status == HttpStatus.SC_OK) {
+                    String contentType = httpResponse.getFirstHeader("content-type") != null ? httpResponse
+                            .getFirstHeader("content-type").getValue() : "";
+                    if (contentType.contains("text") || contentType.contains("html")) {
+                        Header charset = httpResponse.getFirstHeader("content-charset");
+                        CountingInputStream content = new CountingInputStream(httpResponse.getEntity()
+                                                                                          .getContent());
+                        try {
+                            // html tags are stripped by the parser
+                            directives = RobotstxtParser.parse(content, charset == null || contentType.contains
+                                    ("html") ? StandardCharsets.UTF_8 : Charset.forName(charset.getValue()),
+                                                               config.getMaxBytes(), config);
+                        } finally {
+                            if (content.getCount() > config.getMaxBytes()) {
+                                //Closing the content would read the rest of the body first
+                                httpRequest.abort();
+                            } else {
+                                content.close();
+                            }
                         }
+                    } else {
+                        logger.warn(
+                                "Can't read this robots.txt: {}  as it is not written in plain text, " +
+                                        "contentType: {}", url, contentType);
                     }
+                    if (directives != null) {
+                        directives.setEtag(getHeader(httpResponse, HttpHeaders.ETAG))
+                                .setLastModified(getHeader(httpResponse, HttpHeaders.LAST_MODIFIED));
+                    }
+                    Double crawlDelay = directives == null ? null : getCrawlDelay(directives);
+                    if (crawlDelay != null) {
+                        delayCache.updateRobotsDelay(host, crawlDelay);
+                    }
+                } else if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR || status == 429) {
+                    logger.debug("Can't read this robots.txt: {}  as it's status code is {}",
+                                 url, status);
+                    failed = true;
+                } else if (status >= HttpStatus.SC_BAD_REQUEST) {
+                    counterService.increment("counter.robots.unavailable");
+                    logger.debug("No robots.txt at {}, status code {}, everything is allowed", url, status);
                 }
-            } else {
-                logger.debug("Can't read this robots.txt: {}  as it's status code is {}",
-                             url, httpResponse.getStatusLine().getStatusCode());
             }
         } catch (Exception ex) {
-            logger.error("Error occurred while fetching (robots) url: " + url, ex);
+            logger.warn("Error occurred while fetching (robots) url: {}: {}", url, ex.toString());
+            failed = true;
+        }
+        if (failed) {
+            counterService.increment("counter.robots.unreachable");
+            return unreachable(previous, now);
         }
 
         if (directives == null) {
             // We still need to have this object to keep track of the time we fetched it
             directives = new HostDirectives(config);
         }
-        synchronized (host2directivesCache) {
-            if (host2directivesCache.size() == config.getCacheSize()) {
-                String minHost = null;
-                long minAccessTime = Long.MAX_VALUE;
-                for (Map.Entry<String, HostDirectives> entry : host2directivesCache.entrySet()) {
-                    long entryAccessTime = entry.getValue().getLastAccessTime();
-                    if (entryAccessTime < minAccessTime) {
-                        minAccessTime = entryAccessTime;
-                        minHost = entry.getKey();
-                    }
-                }
-                host2directivesCache.remove(minHost);
+        return directives.setTimeFetched(now).setExpires(now + expiration);
+    }
+
+    /**
+     * The delays are kept per host for all requests, so the longest crawl-delay of the
+     * configured user agents applies.
+     */
+    private Double getCrawlDelay(HostDirectives directives) {
+        Double crawlDelay = directives.getCrawlDelay();
+        for (String userAgent : config.getUserAgents().values()) {
+            Double delay = directives.getCrawlDelay(userAgent);
+            if (delay != null && (crawlDelay == null || delay > crawlDelay)) {
+                crawlDelay = delay;
             }
-            host2directivesCache.put(host, directives);
         }
-        return directives;
+        return crawlDelay;
+    }
+
+    /**
+     * Directives of a host whose robots.txt could not be fetched. A robots.txt read before keeps
+     * applying, without one everything is disallowed (RFC 9309). Either way the robots.txt is
+     * requested again after a backoff growing with every failure in a row, so requests to a dead
+     * host are answered from the cache instead of waiting for a timeout.
+     *
+     * @param previous Directives of the host, null if there are none
+     * @param now      Time of the failed fetch
+     * @return directives of the host until the next fetch
+     */
+    protected HostDirectives unreachable(HostDirectives previous, long now) {
+        int failures = previous == null ? 1 : previous.getFailures() + 1;
+        HostDirectives directives = previous;
+        if (previous == null || previous.isUnreachable()) {
+            directives = new HostDirectives(config).setUnreachable(true).setTimeFetched(now);
+        }
+        long backoff = config.getFailureBackoff(failures);
+        logger.debug("Robots.txt unreachable {} times, retrying in {} ms", failures, backoff);
+        return directives.setFailures(failures).setExpires(now + backoff);
+    }
+
+    /**
+     * Takes the lifetime of the robots.txt from its Cache-Control or Expires header, within
+     * the configured bounds.
+     */
+    private long getExpiration(CloseableHttpResponse response, long now) {
+        long freshness = HttpUtils.parseFreshness(getHeader(response, HttpHeaders.CACHE_CONTROL), getHeader
+                (response, HttpHeaders.EXPIRES), getHeader(response, HttpHeaders.DATE), now);
+        if (freshness < 0) {
+            return config.getExpiration();
+        }
+        return Math.min(config.getMaxExpiration(), Math.max(config.getMinExpiration(), freshness));
+    }
+
+    private static String getHeader(CloseableHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * Background refresh, ordered by the last access of the host before it expired. Callers
+     * that cannot use the expired directives anymore take over a refresh still queued and
+     * fetch on their own thread.
+     */
+    private final class Refresh extends CompletableFuture<HostDirectives> implements Runnable,
+            Comparable<Refresh> {
+        private final URL url;
+        private final String host;
+        private final HostDirectives stale;
+        private final long lastAccess;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Refresh(URL url, String host, HostDirectives stale) {
+            this.url = url;
+            this.host = host;
+            this.stale = stale;
+            this.lastAccess = stale.getLastAccessTime();
+        }
+
+        /**
+         * @return true if the caller is the one to fetch, false if the refresh was taken before
+         */
+        boolean start() {
+            return started.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (start()) {
+                fetch();
+            }
+        }
+
+        void fetch() {
+            try {
+                complete(refresh(url, host, stale));
+            } catch (RuntimeException e) {
+                logger.error("Failed to refresh robots.txt of " + host, e);
+                complete(stale);
+            } finally {
+                inFlight.remove(host, this);
+            }
+        }
+
+        @Override
+        public int compareTo(Refresh other) {
+            return Long.compare(other.lastAccess, lastAccess);
+        }
     }
 }
@@ -3,78 +3,215 @@ package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
+ * Parses robots.txt files byte by byte while they are read. Comments and HTML markup are
+ * dropped on the way, strings are only created for the values of known rules. Input
+ * beyond the size limit is ignored, as allowed by RFC 9309.
+ * <p>
+ * The charset has to be ASCII compatible (like UTF-8, which RFC 9309 requires), it is
+ * only used to decode the values.
+ *
  * @author Patrick
  */
 public class RobotstxtParser {
     private static final Logger logger = LoggerFactory.getLogger(RobotstxtParser.class);
-    private static final Pattern RULE_PATTERN = Pattern.compile("(?i)^([A-Za-z\\-]+):(.*)");
-    private static final Set<String> VALID_RULES = new HashSet<>(
-            Arrays.asList("allow", "disallow", "user-agent", "crawl-delay", "host", "sitemap"));
+    private static final String[] NAMES = {"user-agent", "allow", "disallow", "crawl-delay", "host", "sitemap"};
+    private static final byte[][] KEYS = new byte[NAMES.length][];
+    private static final int USER_AGENT = 0;
+
+    static {
+        for (int k = 0; k < NAMES.length; k++) {
+            KEYS[k] = NAMES[k].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
 
     public static HostDirectives parse(String content, RobotstxtConfiguration config) {
-        HostDirectives directives = new HostDirectives(config);
-        StringTokenizer st = new StringTokenizer(content, "\n\r");
+        try {
+            return parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), StandardCharsets
+                    .UTF_8, Integer.MAX_VALUE, config);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        Set<String> userAgents = new HashSet<>();
-        UserAgentDirectives uaDirectives = null;
+    /**
+     * Reads and parses a robots.txt, the stream is not closed.
+     *
+     * @param in       robots.txt content
+     * @param charset  ASCII compatible charset of the content
+     * @param maxBytes Number of bytes after which the rest of the content is ignored, one more byte
+     *                 is read to tell if there is any
+     * @param config   Robots.txt configuration
+     * @return parsed directives
+     * @throws IOException if the content cannot be read
+     */
+    public static HostDirectives parse(InputStream in, Charset charset, int maxBytes, RobotstxtConfiguration
+            config) throws IOException {
+        return new RobotstxtParser(charset, config).read(in, maxBytes);
+    }
 
-        while (st.hasMoreTokens()) {
-            String line = st.nextToken();
+    private static boolean isKeyChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '-';
+    }
 
-            // Strip comments
-            int commentIndex = line.indexOf('#');
-            if (commentIndex > -1) {
-                line = line.substring(0, commentIndex);
-            }
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+    }
 
-            // remove any html markup
-            line = line.replaceAll("<[^>]+>", "").trim();
-            if (line.isEmpty()) {
-                continue;
-            }
+    private final Charset charset;
+    private final HostDirectives directives;
+    private Set<String> userAgents = new HashSet<>();
+    private UserAgentDirectives uaDirectives = null;
+    private byte[] line = new byte[256];
+    private int length;
+    private int tagStart = -1;
+    private boolean comment;
 
-            Matcher m = RULE_PATTERN.matcher(line);
-            if (m.matches()) {
-                String rule = m.group(1).toLowerCase();
-                String value = m.group(2).trim();
+    private RobotstxtParser(Charset charset, RobotstxtConfiguration config) {
+        this.charset = charset;
+        this.directives = new HostDirectives(config);
+    }
 
-                if (VALID_RULES.contains(rule)) {
-                    if (rule.equals("user-agent")) {
-                        String currentUserAgent = value.toLowerCase();
-                        if (uaDirectives != null) {
-                            userAgents = new HashSet<>();
-                            directives.addDirectives(uaDirectives);
-                            uaDirectives = null;
-                        }
-                        userAgents.add(currentUserAgent);
-                    } else {
-                        if (uaDirectives == null) {
-                            // No "User-agent": clause defaults to
-                            // wildcard UA
-                            if (userAgents.isEmpty()) {
-                                userAgents.add("*");
-                            }
-                            uaDirectives = new UserAgentDirectives(userAgents);
-                        }
-                        uaDirectives.add(rule, value);
-                    }
-                } else {
-                    logger.info("Unrecognized rule in robots.txt: {}", rule);
+    private HostDirectives read(InputStream in, int maxBytes) throws IOException {
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        boolean start = true;
+        int read;
+        while (total < maxBytes && (read = in.read(buffer, 0, Math.min(buffer.length, maxBytes - total))) != -1) {
+            int i = 0;
+            if (start && read >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte)
+                    0xBF) {
+                //UTF-8 byte order mark
+                i = 3;
+            }
+            start = false;
+            total += read;
+            for (; i < read; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    endLine();
+                } else if (!comment) {
+                    append(b);
                 }
-            } else {
-                logger.debug("Unrecognized line in robots.txt: {}", line);
             }
         }
-
+        //A robots.txt of exactly maxBytes is complete, its last line is kept
+        if (total < maxBytes || in.read() == -1) {
+            endLine();
+        } else {
+            logger.debug("Robots.txt larger than {} bytes, the rest is ignored", maxBytes);
+        }
         directives.addDirectives(uaDirectives);
+        directives.compile();
         return directives;
     }
+
+    private void append(byte b) {
+        if (b == '#') {
+            comment = true;
+            return;
+        }
+        if (b == '<' && tagStart < 0) {
+            tagStart = length;
+        } else if (b == '>' && tagStart >= 0) {
+            //Drop markup like <br>, but keep an empty <>
+            if (length > tagStart + 1) {
+                length = tagStart;
+                tagStart = -1;
+                return;
+            }
+            tagStart = -1;
+        }
+        if (length == line.length) {
+            line = Arrays.copyOf(line, length * 2);
+        }
+        line[length++] = b;
+    }
+
+    private void endLine() {
+        int start = 0;
+        int end = length;
+        length = 0;
+        tagStart = -1;
+        comment = false;
+        while (start < end && isSpace(line[start])) {
+            start++;
+        }
+        if (start == end) {
+            return;
+        }
+        int keyEnd = start;
+        while (keyEnd < end && isKeyChar(line[keyEnd])) {
+            keyEnd++;
+        }
+        int colon = keyEnd;
+        while (colon < end && isSpace(line[colon])) {
+            colon++;
+        }
+        if (keyEnd == start || colon == end || line[colon] != ':') {
+            logger.debug("Unrecognized line in robots.txt");
+            return;
+        }
+        int key = findKey(start, keyEnd);
+        if (key < 0) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Unrecognized rule in robots.txt: {}", new String(line, start, keyEnd - start,
+                                                                              charset));
+            }
+            return;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && isSpace(line[valueStart])) {
+            valueStart++;
+        }
+        while (end > valueStart && isSpace(line[end - 1])) {
+            end--;
+        }
+        String value = new String(line, valueStart, end - valueStart, charset);
+        if (key == USER_AGENT) {
+            if (uaDirectives != null) {
+                userAgents = new HashSet<>();
+                directives.addDirectives(uaDirectives);
+                uaDirectives = null;
+            }
+            userAgents.add(value.toLowerCase());
+        } else {
+            if (uaDirectives == null) {
+                // No "User-agent": clause defaults to
+                // wildcard UA
+                if (userAgents.isEmpty()) {
+                    userAgents.add("*");
+                }
+                uaDirectives = new UserAgentDirectives(userAgents);
+            }
+            uaDirectives.add(NAMES[key], value);
+        }
+    }
+
+    private int findKey(int start, int end) {
+        for (int k = 0; k < KEYS.length; k++) {
+            byte[] candidate = KEYS[k];
+            if (candidate.length != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < candidate.length && (line[start + i] | 0x20) == candidate[i]) {
+                i++;
+            }
+            if (i == candidate.length) {
+                return k;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,93 @@
+package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of resolving the robots.txt files of a host list ahead of a crawl, see
+ * {@link RobotstxtHandler#prefetch}.
+ */
+public class RobotstxtPrefetch {
+
+    private final int hosts;
+    private final long started = System.currentTimeMillis();
+    private volatile long finished;
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public RobotstxtPrefetch(int hosts) {
+        this.hosts = hosts;
+        if (hosts == 0) {
+            finished = started;
+        }
+    }
+
+    void fetched() {
+        count(fetched);
+    }
+
+    void cached() {
+        count(cached);
+    }
+
+    void failed() {
+        count(failed);
+    }
+
+    private void count(AtomicInteger counter) {
+        counter.incrementAndGet();
+        if (getDone() == hosts) {
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return number of distinct hosts to resolve
+     */
+    public int getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return number of hosts resolved so far
+     */
+    public int getDone() {
+        return fetched.get() + cached.get() + failed.get();
+    }
+
+    /**
+     * @return number of hosts whose robots.txt was requested or loaded from the store
+     */
+    public int getFetched() {
+        return fetched.get();
+    }
+
+    /**
+     * @return number of hosts whose directives were already cached and valid
+     */
+    public int getCached() {
+        return cached.get();
+    }
+
+    /**
+     * @return number of invalid or unreachable hosts
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public boolean isRunning() {
+        return finished == 0;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * @return milliseconds since the start, or until the last host was resolved
+     */
+    public long getDuration() {
+        return (isRunning() ? System.currentTimeMillis() : finished) - started;
+    }
+}
@@ -0,0 +1,67 @@
+package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
+
+import java.io.Serializable;
+
+/**
+ * Compact form of {@link HostDirectives} kept in the {@link RobotstxtStore}. Only the
+ * directives understood by the parser are stored, as robots.txt text, together with the
+ * fetch time and the validators of the response.
+ */
+public class RobotstxtRecord implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String content;
+    private final long fetched;
+    private final long expires;
+    private final String etag;
+    private final String lastModified;
+
+    public RobotstxtRecord(String content, long fetched, long expires, String etag, String lastModified) {
+        this.content = content;
+        this.fetched = fetched;
+        this.expires = expires;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public static RobotstxtRecord of(HostDirectives directives) {
+        return new RobotstxtRecord(directives.toRobotstxt(), directives.getTimeFetched(), directives.getExpires(),
+                                   directives.getEtag(), directives.getLastModified());
+    }
+
+    /**
+     * Parses the stored directives again, matched against the currently configured user agent.
+     *
+     * @param config Robots.txt configuration
+     * @return directives as fetched originally
+     */
+    public HostDirectives toDirectives(RobotstxtConfiguration config) {
+        HostDirectives directives = content.isEmpty() ? new HostDirectives(config) : RobotstxtParser.parse(content,
+                                                                                                             config);
+        return directives.setTimeFetched(fetched)
+                .setExpires(expires)
+                .setEtag(etag)
+                .setLastModified(lastModified);
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public long getFetched() {
+        return fetched;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,113 @@
+package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the infinispan cache persisting fetched robots.txt directives, so they
+ * survive a restart of the proxy.
+ * <p>
+ * The file store is not preloaded, directives are read from disk once their host is
+ * requested. Startup time therefore does not depend on the number of stored hosts.
+ */
+@Component
+public class RobotstxtStore implements DisposableBean {
+
+    private static Logger log = LoggerFactory.getLogger(RobotstxtStore.class);
+    @Autowired
+    RobotstxtConfiguration config;
+    private DefaultCacheManager cacheManager;
+    private volatile Cache<String, RobotstxtRecord> cache;
+
+    private Cache<String, RobotstxtRecord> cache() {
+        if (cache == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    RobotstxtConfiguration.Store store = config.getRobotstxt();
+                    Configuration configuration = new ConfigurationBuilder().persistence()
+                            .passivation(false)
+                            .addSingleFileStore()
+                            .preload(false)
+                            .shared(false)
+                            .ignoreModifications(false)
+                            .purgeOnStartup(false)
+                            .location(store.getDirectory())
+                            .async()
+                            .enabled(true)
+                            .threadPoolSize(2)
+                            .memory()
+                            .size(store.getMemory())
+                            .expiration()
+                            .lifespan(store.getLifespan(), TimeUnit.MILLISECONDS)
+                            .storeAsBinary()
+                            .enable()
+                            .jmxStatistics()
+                            .enable()
+                            .build();
+
+                    GlobalConfiguration globalConfiguration = new GlobalConfigurationBuilder()
+                            .globalJmxStatistics()
+                            .enable()
+                            .cacheManagerName("RobotstxtCacheManager")
+                            .jmxDomain(store.getJmxDomain())
+                            .allowDuplicateDomains(true)
+                            .build();
+                    this.cacheManager = new DefaultCacheManager(globalConfiguration, configuration);
+                    this.cache = cacheManager.getCache("robots-cache");
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Reads the stored directives of a host.
+     *
+     * @param host Host
+     * @return directives or null if none are stored or they could not be read
+     */
+    public HostDirectives load(String host) {
+        try {
+            RobotstxtRecord record = cache().get(host);
+            if (record != null) {
+                log.debug("Directives of " + host + " restored, fetched at " + record.getFetched());
+                return record.toDirectives(config);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to restore directives of " + host, e);
+        }
+        return null;
+    }
+
+    /**
+     * Stores the directives of a host, the write to disk happens asynchronously.
+     *
+     * @param host       Host
+     * @param directives Directives
+     */
+    public void save(String host, HostDirectives directives) {
+        try {
+            cache().putAsync(host, RobotstxtRecord.of(directives));
+        } catch (Exception e) {
+            log.warn("Failed to store directives of " + host, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (cacheManager != null) {
+            cacheManager.stop();
+        }
+    }
+}
@@ -9,11 +9,23 @@ public class Rule {
     protected static final Logger logger = LoggerFactory.getLogger(Rule.class);
 
     public int type;
-    public Pattern pattern;
+    /** The pattern as written in the robots.txt */
+    public String source;
+    /** Compiled on first use, matching is done by {@link RuleMatcher} */
+    private volatile Pattern pattern;
 
     public Rule(int type, String pattern) {
         this.type = type;
-        this.pattern = robotsPatternToRegexp(pattern);
+        this.source = pattern;
+    }
+
+    public Pattern getPattern() {
+        Pattern compiled = pattern;
+        if (compiled == null) {
+            compiled = robotsPatternToRegexp(source);
+            pattern = compiled;
+        }
+        return compiled;
     }
 
     /**
@@ -90,6 +102,6 @@ public class Rule {
      * @return True when the path matches, false when it does not
      */
     public boolean matches(String path) {
-        return this.pattern.matcher(path).matches();
+        return getPattern().matcher(path).matches();
     }
 }
@@ -0,0 +1,167 @@
+package at.ac.wu.web.crawlers.thesis.politeness.robotstxt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The allow and disallow rules of one user agent group, compiled for matching paths
+ * without allocation.
+ * <p>
+ * The verdict follows RFC 9309: of all matching rules the longest one wins, if an allow
+ * and a disallow rule of the same length match, the allow rule wins. Rules without
+ * wildcards are kept in a trie which is walked once along the path. Rules with
+ * <tt>*</tt> are matched one by one, longest first, and only as long as they could
+ * still beat the best match of the trie.
+ */
+public class RuleMatcher {
+
+    private final Node root = new Node();
+    private final Glob[] globs;
+
+    public RuleMatcher(Collection<Rule> rules) {
+        List<Glob> wildcards = new ArrayList<>();
+        for (Rule rule : rules) {
+            String source = rule.source;
+            //An empty rule matches nothing
+            if (source == null || source.isEmpty()) {
+                continue;
+            }
+            boolean anchored = source.endsWith("$");
+            String literal = anchored ? source.substring(0, source.length() - 1) : source;
+            if (literal.indexOf('*') >= 0) {
+                wildcards.add(new Glob(literal, anchored, source.length(), rule.type));
+            } else {
+                Node node = root;
+                for (int i = 0; i < literal.length(); i++) {
+                    node = node.add(literal.charAt(i));
+                }
+                if (anchored) {
+                    node.exact = merge(node.exact, rule.type);
+                } else {
+                    node.prefix = merge(node.prefix, rule.type);
+                }
+            }
+        }
+        this.globs = wildcards.toArray(new Glob[0]);
+        Arrays.sort(this.globs, (a, b) -> Integer.compare(b.length, a.length));
+    }
+
+    private static int merge(int current, int type) {
+        //Allow wins over disallow with the same pattern
+        return current == HostDirectives.ALLOWED || type == HostDirectives.ALLOWED ? HostDirectives.ALLOWED : type;
+    }
+
+    /**
+     * Matches a path against all rules.
+     *
+     * @param path The path
+     * @return ALLOWED, DISALLOWED or UNDEFINED if no rule matches
+     */
+    public int checkAccess(String path) {
+        int bestLength = -1;
+        int verdict = HostDirectives.UNDEFINED;
+        Node node = root;
+        int depth = 0;
+        while (node != null) {
+            if (node.prefix != HostDirectives.UNDEFINED) {
+                bestLength = depth;
+                verdict = node.prefix;
+            }
+            if (depth == path.length()) {
+                if (node.exact != HostDirectives.UNDEFINED) {
+                    //Counts the '$' as well
+                    bestLength = depth + 1;
+                    verdict = node.exact;
+                }
+                break;
+            }
+            node = node.get(path.charAt(depth++));
+        }
+        for (Glob glob : globs) {
+            if (glob.length < bestLength) {
+                break;
+            }
+            if ((glob.length > bestLength || glob.type == HostDirectives.ALLOWED) && glob.matches(path)) {
+                bestLength = glob.length;
+                verdict = glob.type;
+            }
+        }
+        return verdict;
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        char[] labels = NO_LABELS;
+        Node[] children = NO_CHILDREN;
+        int prefix = HostDirectives.UNDEFINED;
+        int exact = HostDirectives.UNDEFINED;
+
+        Node get(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node add(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            Node child = new Node();
+            newLabels[index] = c;
+            newChildren[index] = child;
+            this.labels = newLabels;
+            this.children = newChildren;
+            return child;
+        }
+    }
+
+    /**
+     * A rule containing <tt>*</tt>, which matches any sequence of characters including
+     * the empty one. The literal parts between the wildcards are searched leftmost
+     * first, which never misses a match.
+     */
+    private static final class Glob {
+        final String[] parts;
+        final boolean anchored;
+        final int length;
+        final int type;
+
+        Glob(String pattern, boolean anchored, int length, int type) {
+            this.parts = pattern.split("\\*", -1);
+            this.anchored = anchored;
+            this.length = length;
+            this.type = type;
+        }
+
+        boolean matches(String path) {
+            String first = parts[0];
+            if (!path.startsWith(first)) {
+                return false;
+            }
+            int position = first.length();
+            int last = parts.length - 1;
+            for (int i = 1; i < last; i++) {
+                int index = path.indexOf(parts[i], position);
+                if (index < 0) {
+                    return false;
+                }
+                position = index + parts[i].length();
+            }
+            if (anchored) {
+                //The last part has to end the path, after everything matched so far
+                return path.length() - parts[last].length() >= position && path.endsWith(parts[last]);
+            }
+            return path.indexOf(parts[last], position) >= 0;
+        }
+    }
+}
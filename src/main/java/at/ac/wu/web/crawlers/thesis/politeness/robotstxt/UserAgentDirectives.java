@@ -46,29 +46,12 @@ public class UserAgentDirectives {
         return userAgents.contains("*");
     }
 
-    public boolean isEmpty() {
-        return pathRules.isEmpty();
+    public Set<Rule> getPathRules() {
+        return pathRules;
     }
 
-    public int checkAccess(String path, String userAgent) {
-        // If the user agent does not match, the verdict is known
-        if (match(userAgent) == 0) {
-            return HostDirectives.UNDEFINED;
-        }
-
-        // Order the rules based on their match with the path
-        Set<Rule> rules = new TreeSet<>(new PathComparator(path));
-        rules.addAll(pathRules);
-
-        // Return the verdict of the best matching rule
-        for (Rule rule : rules) {
-            if (rule.matches(path)) {
-                logger.debug(rule.pattern + "[" + rule.type + "] matches for path " + path);
-                return rule.type;
-            }
-        }
-
-        return HostDirectives.UNDEFINED;
+    public boolean isEmpty() {
+        return pathRules.isEmpty();
     }
 
     public void add(String rule, String value) {
@@ -113,90 +96,60 @@ public class UserAgentDirectives {
     }
 
     /**
-     * Return the listed sitemaps, or null if none was specified
+     * Writes these directives back in robots.txt syntax, leaving out everything the parser
+     * ignores.
      *
-     * @return The list of sitemap-links specified in robots.txt
+     * @param out Builder to append to
      */
-    public List<String> getSitemap() {
-        return sitemap;
-    }
-
-    static class PathComparator implements Comparator<Rule> {
-        String path;
-
-        PathComparator(String path) {
-            this.path = path;
+    public void write(StringBuilder out) {
+        for (String ua : userAgents) {
+            out.append("User-agent: ").append(ua).append('\n');
         }
-
-        /**
-         * Compare two paths.
-         * If lhs matches and rhs does not, this will return -1
-         * If rhs matches and lhs does not, this will return 1
-         * If both match or both do not match,, this will return the result of
-         * a numeric comparison of the length of both patterns, where
-         * the longest (=most specific) one will come first.
-         */
-        @Override
-        public int compare(Rule lhs, Rule rhs) {
-            boolean p1Match = lhs.matches(path);
-            boolean p2Match = rhs.matches(path);
-
-            // Matching patterns come first
-            if (p1Match && !p2Match) {
-                return -1;
-            } else if (p2Match && !p1Match) {
-                return 1;
-            }
-
-            // Most specific pattern first
-            String p1 = lhs.pattern.toString();
-            String p2 = rhs.pattern.toString();
-
-            if (p1.length() != p2.length()) {
-                return Integer.compare(p2.length(), p1.length());
+        if (crawlDelay != null) {
+            out.append("Crawl-delay: ").append(crawlDelay).append('\n');
+        }
+        if (preferredHost != null) {
+            out.append("Host: ").append(preferredHost).append('\n');
+        }
+        for (Rule rule : pathRules) {
+            out.append(rule.type == HostDirectives.ALLOWED ? "Allow: " : "Disallow: ").append(rule.source).append('\n');
+        }
+        if (sitemap != null) {
+            for (String url : sitemap) {
+                out.append("Sitemap: ").append(url).append('\n');
             }
-
-            // Just order alphabetically if the patterns are of the same length
-            return p1.compareTo(p2);
         }
     }
 
-    public static class UserAgentComparator implements Comparator<UserAgentDirectives> {
-        String crawlUserAgent;
-
-        UserAgentComparator(String myUA) {
-            crawlUserAgent = myUA;
+    /**
+     * Estimates the memory used by these directives, strings and rules counted with two
+     * bytes per character plus object overhead.
+     *
+     * @return estimated size in bytes
+     */
+    public int getEstimatedSize() {
+        int size = 96;
+        for (String ua : userAgents) {
+            size += 48 + 2 * ua.length();
         }
-
-        @Override
-        public int compare(UserAgentDirectives lhs, UserAgentDirectives rhs) {
-            int matchLhs = lhs.match(crawlUserAgent);
-            int matchRhs = rhs.match(crawlUserAgent);
-            if (matchLhs != matchRhs) {
-                return Integer.compare(matchRhs, matchLhs); // Sort descending
-            }
-
-            // Return the shortest list of user-agents unequal
-            if (lhs.userAgents.size() != rhs.userAgents.size()) {
-                return Integer.compare(lhs.userAgents.size(), rhs.userAgents.size());
-            }
-
-            // Alphabetic sort when length of lists is equal
-            Iterator<String> i1 = lhs.userAgents.iterator();
-            Iterator<String> i2 = rhs.userAgents.iterator();
-
-            // Find first non-equal user agent
-            while (i1.hasNext()) {
-                String ua1 = i1.next();
-                String ua2 = i2.next();
-                int order = ua1.compareTo(ua2);
-                if (order != 0) {
-                    return order;
-                }
+        for (Rule rule : pathRules) {
+            //The compiled matcher takes about as much again as the source
+            size += 96 + 4 * rule.source.length();
+        }
+        if (sitemap != null) {
+            for (String url : sitemap) {
+                size += 48 + 2 * url.length();
             }
-
-            // List of user agents was also equal, so these directives are equal
-            return 0;
         }
+        return size;
+    }
+
+    /**
+     * Return the listed sitemaps, or null if none was specified
+     *
+     * @return The list of sitemap-links specified in robots.txt
+     */
+    public List<String> getSitemap() {
+        return sitemap;
     }
 }
@@ -0,0 +1,38 @@
+package at.ac.wu.web.crawlers.thesis.service;
+
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs asynchronous responses, i.e. the streamed page URLs of the sitemaps of a host, on a
+ * bounded pool instead of a new thread per request. Requests beyond the pool and its queue
+ * are rejected, requests exceeding the sitemap timeout are completed by the container.
+ */
+@Configuration
+public class AsyncConfiguration implements WebMvcConfigurer {
+
+    @Autowired
+    RobotstxtConfiguration config;
+
+    @Bean
+    public ThreadPoolTaskExecutor sitemapExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getSitemapThreads());
+        executor.setMaxPoolSize(config.getSitemapThreads());
+        executor.setQueueCapacity(config.getSitemapThreads());
+        executor.setThreadNamePrefix("sitemap-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(sitemapExecutor());
+        //The expansion stops itself after the sitemap timeout, a sitemap being read may still take a fetch timeout
+        configurer.setDefaultTimeout(config.getSitemapTimeout() + config.getFetchTimeout());
+    }
+}
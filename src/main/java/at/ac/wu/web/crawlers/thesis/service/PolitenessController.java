@@ -1,10 +1,23 @@
 package at.ac.wu.web.crawlers.thesis.service;
 
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtPrefetch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Various services to hand over a set of URLs and get
@@ -16,35 +29,95 @@ import java.util.List;
 @CrossOrigin(origins = "http://localhost:9999")
 public class PolitenessController {
 
+    private static final Logger logger = LoggerFactory.getLogger(PolitenessController.class);
+
     @Autowired
     URLPolitenessService urlService;
 
+    @Autowired
+    RobotstxtHandler robotsTxt;
+
+    @Autowired
+    SitemapService sitemapService;
+
     //http://localhost:9999/politeness?urls=121312,1231232
     @GetMapping(path = "/politeness")
-    public List<String> getPoliteURLs(@RequestParam("urls") List<String> urls) {
-        return filterURLs(urls);
+    public List<String> getPoliteURLs(@RequestParam("urls") List<String> urls, HttpServletRequest request) {
+        return filterURLs(urls, request);
     }
 
     //curl -X "POST" -H "Content-Type: application/json" localhost:9999/politeness --data "@data.json"
     //data.json with simple array ["http://.....","...."]
     @PostMapping(path = "/politeness")
-    public List<String> postPoliteURLs(@RequestBody List<String> urls) {
-        return filterURLs(urls);
+    public List<String> postPoliteURLs(@RequestBody List<String> urls, HttpServletRequest request) {
+        return filterURLs(urls, request);
     }
 
     @PostMapping(path = "/politeness/verbose")
-    public List<URLPoliteness> postPoliteURLsVerbose(@RequestBody List<String> urls) {
+    public List<URLPoliteness> postPoliteURLsVerbose(@RequestBody List<String> urls, HttpServletRequest request) {
         if (urls == null || urls.isEmpty()) {
             return Collections.emptyList();
         } else {
-            return urlService.isCrawlableVerbose(urls);
+            return urlService.isCrawlableVerbose(urls, robotsTxt.getUserAgent(request));
         }
     }
 
-    private List<String> filterURLs(List<String> urls) {
+    //curl -X "POST" -u admin -H "Content-Type: application/json" localhost:9999/politeness/robots/prefetch
+    // --data '["example.com","https://example.org"]'
+    @PostMapping(path = "/politeness/robots/prefetch")
+    public RobotstxtPrefetch prefetchRobotstxt(@RequestBody List<String> hosts) {
+        return robotsTxt.prefetch(hosts == null ? Collections.emptyList() : hosts);
+    }
+
+    @GetMapping(path = "/politeness/robots/prefetch")
+    public RobotstxtPrefetch getRobotstxtPrefetch() {
+        return robotsTxt.getLastPrefetch();
+    }
+
+    //http://localhost:9999/politeness/sitemaps?host=example.com
+    @GetMapping(path = "/politeness/sitemaps")
+    public List<String> getSitemaps(@RequestParam("host") String host) {
+        return sitemapService.getSitemaps(host);
+    }
+
+    //curl -X "POST" -H "Content-Type: application/json" localhost:9999/politeness/sitemaps --data '["example.com"]'
+    @PostMapping(path = "/politeness/sitemaps")
+    public Map<String, List<String>> postSitemaps(@RequestBody List<String> hosts) {
+        return hosts == null ? Collections.emptyMap() : sitemapService.getSitemaps(hosts);
+    }
+
+    //http://localhost:9999/politeness/sitemaps/urls?host=example.com
+    //page URLs of all sitemaps of the host, one per line, sent while the sitemaps are read
+    @GetMapping(path = "/politeness/sitemaps/urls", produces = MediaType.TEXT_PLAIN_VALUE)
+    public StreamingResponseBody getSitemapURLs(@RequestParam("host") String host, HttpServletRequest request) {
+        String userAgent = robotsTxt.getUserAgent(request);
+        return out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            try {
+                sitemapService.expand(host, userAgent, url -> {
+                    try {
+                        writer.write(url);
+                        writer.write('\n');
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.flush();
+            } catch (InterruptedException e) {
+                //interrupted when the request timed out
+                Thread.currentThread().interrupt();
+            } catch (UncheckedIOException e) {
+                //client went away, the expansion stopped
+                logger.debug("Streaming sitemap URLs of {} stopped: {}", host, e.getCause().getMessage());
+            }
+        };
+    }
+
+    private List<String> filterURLs(List<String> urls, HttpServletRequest request) {
         if (urls == null || urls.isEmpty()) {
             return Collections.emptyList();
         }
-        return urlService.isCrawlable(urls);
+        return urlService.isCrawlable(urls, robotsTxt.getUserAgent(request));
     }
 }
@@ -0,0 +1,248 @@
+package at.ac.wu.web.crawlers.thesis.service;
+
+import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
+import at.ac.wu.web.crawlers.thesis.politeness.AdaptiveDelayController;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
+import com.google.common.io.ByteStreams;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves the sitemaps listed in robots.txt files from the directive cache, so crawlers do not
+ * request the robots.txt a second time to find them, and expands them into page URLs.
+ */
+@Service
+public class SitemapService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SitemapService.class);
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        //Sitemaps come from anywhere, external entities are never resolved
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    }
+
+    @Autowired
+    RobotstxtHandler robotsTxt;
+
+    @Autowired
+    RobotstxtConfiguration config;
+
+    @Autowired
+    PolitenessCache politenessCache;
+
+    @Autowired
+    HttpUtils httpUtils;
+
+    /**
+     * @param host Host name or URL
+     * @return sitemaps listed in the robots.txt of the host, empty if there are none or the host is invalid
+     */
+    public List<String> getSitemaps(String host) {
+        URL url = toUrl(host);
+        return url == null ? Collections.emptyList() : robotsTxt.getSitemaps(url);
+    }
+
+    /**
+     * @param hosts Host names or URLs
+     * @return sitemaps listed in the robots.txt of each host
+     */
+    public Map<String, List<String>> getSitemaps(List<String> hosts) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (String host : hosts) {
+            result.computeIfAbsent(host, this::getSitemaps);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the sitemaps of the host and passes on the page URLs as they are parsed. Sitemap
+     * index files are expanded, each sitemap is read once and requested like a proxied request:
+     * it must be allowed by the robots.txt of its host for the user agent and waits for the
+     * politeness delay.
+     * No further sitemap is requested after the sitemap timeout. An exception thrown by the
+     * consumer, e.g. because the client went away, stops the expansion and is passed on.
+     *
+     * @param host      Host name or URL
+     * @param userAgent User agent whose robots.txt rules apply, null for the configured
+     *                  user-agent name
+     * @param urls      Receives the page URLs
+     * @return number of page URLs
+     * @throws InterruptedException if interrupted while waiting for the politeness delay
+     */
+    public int expand(String host, String userAgent, Consumer<String> urls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + config.getSitemapTimeout();
+        Deque<String> pending = new ArrayDeque<>(getSitemaps(host));
+        Set<String> seen = new HashSet<>();
+        int[] count = {0};
+        Consumer<String> counted = url -> {
+            count[0]++;
+            urls.accept(url);
+        };
+        while (!pending.isEmpty() && seen.size() < config.getMaxSitemaps()) {
+            if (System.currentTimeMillis() >= deadline) {
+                logger.debug("Expanding the sitemaps of {} timed out, {} not read", host, pending.size());
+                break;
+            }
+            String sitemap = pending.poll();
+            URL url = toUrl(sitemap);
+            if (url == null || !seen.add(sitemap)) {
+                continue;
+            }
+            if (!robotsTxt.allows(url, userAgent)) {
+                logger.debug("Sitemap {} disallowed by robots.txt", sitemap);
+                continue;
+            }
+            read(url, pending::add, counted, deadline);
+        }
+        return count[0];
+    }
+
+    private void read(URL url, Consumer<String> sitemaps, Consumer<String> urls, long deadline) throws
+            InterruptedException {
+        String host = url.getHost().toLowerCase();
+        if (!acquire(host, deadline)) {
+            logger.debug("No slot for sitemap {} before the timeout", url);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int status = AdaptiveDelayController.NO_RESPONSE;
+        try {
+            HttpRequest request = httpUtils.buildHttpRequest("GET", url.toString(), null, new HttpHeaders(),
+                                                             new HttpHeaders(), null);
+            try (CloseableHttpResponse response = httpUtils.getHttpClient().execute(
+                    httpUtils.getHttpHost(url), request, HttpUtils.timeoutContext(config.getFetchTimeout()))) {
+                status = response.getStatusLine().getStatusCode();
+                Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                politenessCache.backOff(host, status, retryAfter == null ? null : retryAfter.getValue());
+                if (status != HttpStatus.SC_OK) {
+                    logger.debug("Can't read sitemap {} as its status code is {}", url, status);
+                    return;
+                }
+                try (InputStream content = decode(response, url, response.getEntity().getContent())) {
+                    parse(content, sitemaps, urls);
+                }
+            }
+        } catch (IOException | XMLStreamException e) {
+            //URLs read before the error are kept
+            logger.warn("Failed to read sitemap {}: {}", url, e.toString());
+        } finally {
+            politenessCache.exit(host);
+            politenessCache.updateLatency(host, System.currentTimeMillis() - start, status);
+        }
+    }
+
+    /**
+     * Waits for a slot of the host as a delayed proxied request would.
+     *
+     * @return false if there was no slot before the deadline
+     */
+    private boolean acquire(String host, long deadline) throws InterruptedException {
+        while (true) {
+            long wait = politenessCache.reserve(host);
+            if (wait < 0) {
+                long remaining = Math.max(1, politenessCache.getRemainingDelay(host));
+                if (System.currentTimeMillis() + remaining >= deadline) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(remaining);
+                continue;
+            }
+            //A reserved slot is used even if it starts after the deadline, it cannot be returned
+            TimeUnit.NANOSECONDS.sleep(wait);
+            while (!politenessCache.tryEnter(host)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(politenessCache.getConcurrencyRetry());
+            }
+            return true;
+        }
+    }
+
+    private InputStream decode(CloseableHttpResponse response, URL url, InputStream content) throws IOException {
+        //Larger sitemaps are not allowed by the protocol, the rest is ignored
+        InputStream limited = ByteStreams.limit(content, config.getMaxSitemapBytes());
+        Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        Header type = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+        if ((encoding != null && encoding.getValue().contains("gzip")) || (type != null && type.getValue()
+                .contains("gzip")) || url.getPath().endsWith(".gz")) {
+            return ByteStreams.limit(new GZIPInputStream(limited), config.getMaxSitemapBytes());
+        }
+        return limited;
+    }
+
+    /**
+     * Parses a sitemap or sitemap index, the <tt>loc</tt> of a <tt>url</tt> is a page, the
+     * <tt>loc</tt> of a <tt>sitemap</tt> another sitemap.
+     */
+    public static void parse(InputStream content, Consumer<String> sitemaps, Consumer<String> urls) throws
+            XMLStreamException {
+        XMLStreamReader reader = XML_FACTORY.createXMLStreamReader(content);
+        boolean inSitemap = false;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if (name.equals("sitemap")) {
+                    inSitemap = true;
+                } else if (name.equals("url")) {
+                    inSitemap = false;
+                } else if (name.equals("loc")) {
+                    String loc = reader.getElementText().trim();
+                    if (loc.isEmpty()) {
+                        continue;
+                    }
+                    if (inSitemap) {
+                        sitemaps.accept(loc);
+                    } else {
+                        urls.accept(loc);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static URL toUrl(String host) {
+        try {
+            return new URL(host.contains("://") ? host.trim() : "http://" + host.trim());
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
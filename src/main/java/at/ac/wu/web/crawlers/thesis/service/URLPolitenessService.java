@@ -34,14 +34,28 @@ public class URLPolitenessService {
      * @return URLs which are allowed to be crawled
      */
     public List<String> isCrawlable(List<String> input) {
+        return isCrawlable(input, null);
+    }
+
+    /**
+     * Same as {@link #isCrawlable(List)}, with the robots.txt rules for the given user agent.
+     *
+     * @param input     set of URLs
+     * @param userAgent user agent, null for the configured one
+     * @return URLs which are allowed to be crawled
+     */
+    public List<String> isCrawlable(List<String> input, String userAgent) {
         List<URL> urls = input.stream().map(this::toUrl).filter(Objects::nonNull).collect(Collectors.toList());
-        List<URL> visitedDomains = new ArrayList<>();
+        boolean[] allowed = robotsTxt.allows(urls, userAgent);
+        Set<String> visitedDomains = new HashSet<>();
         List<String> result = new ArrayList<>(input.size());
-        for (URL url : urls) {
-            if (!visitedDomains.contains(url)) {
-                if (robotsTxt.allows(url)) {
-                    if (cache.isAllowed(url.getHost().toLowerCase())) {
-                        visitedDomains.add(url);
+        for (int i = 0; i < urls.size(); i++) {
+            URL url = urls.get(i);
+            final String host = url.getHost().toLowerCase();
+            if (!visitedDomains.contains(host)) {
+                if (allowed[i]) {
+                    if (cache.isAllowed(host)) {
+                        visitedDomains.add(host);
                         result.add(url.toString());
                     }
                 }
@@ -59,13 +73,26 @@ public class URLPolitenessService {
      * @return set of Politeness items
      */
     public List<URLPoliteness> isCrawlableVerbose(List<String> input) {
+        return isCrawlableVerbose(input, null);
+    }
+
+    /**
+     * Same as {@link #isCrawlableVerbose(List)}, with the robots.txt rules for the given user agent.
+     *
+     * @param input     set of URLs
+     * @param userAgent user agent, null for the configured one
+     * @return set of Politeness items
+     */
+    public List<URLPoliteness> isCrawlableVerbose(List<String> input, String userAgent) {
         List<URL> urls = input.stream().map(this::toUrl).filter(Objects::nonNull).collect(Collectors.toList());
+        boolean[] allowed = robotsTxt.allows(urls, userAgent);
         Map<String, Integer> visitedDomains = new HashMap<>();
         List<URLPoliteness> result = new ArrayList<>(input.size());
-        for (URL url : urls) {
+        for (int i = 0; i < urls.size(); i++) {
+            URL url = urls.get(i);
             final String host = url.getHost().toLowerCase();
             int delay = cache.getDelayForDomain(host);
-            if (robotsTxt.allows(url)) {
+            if (allowed[i]) {
                 if (cache.isAllowed(host)) {
                     if (visitedDomains.containsKey(host)) {
                         String message = "There must be a delay of " + delay + " milliseconds between each request.";
@@ -76,8 +103,11 @@ public class URLPolitenessService {
                         result.add(new URLPoliteness(url.toString(), null, true, -1));
                     }
                 } else {
-                    String message = "There must be a delay of " + delay + " milliseconds between each request.";
-                    result.add(new URLPoliteness(url.toString(), message, false, delay));
+                    int remaining = cache.getRemainingDelay(host);
+                    String message = remaining > delay ? "The host asked to pause requests for " + remaining +
+                            " milliseconds." : "There must be a delay of " + delay + " milliseconds between each " +
+                            "request.";
+                    result.add(new URLPoliteness(url.toString(), message, false, remaining));
                     addToMap(visitedDomains, host, delay);
                 }
             } else {
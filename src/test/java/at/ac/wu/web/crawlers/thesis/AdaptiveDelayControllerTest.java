@@ -0,0 +1,55 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.AdaptiveDelayController;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveDelayControllerTest {
+
+    private final AdaptiveDelayController controller = new AdaptiveDelayController(
+            new PolitenessConfiguration.Adaptive().setMinDelay(500).setMaxDelay(60_000).setDecreaseStep(100));
+
+    @Test
+    public void testFastHostDecreasesToFloor() {
+        PolitenessEntry entry = new PolitenessEntry("fast.example.com", 2000, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            controller.update(entry, controller.getFloor(entry), 50, 200);
+        }
+        Assert.assertEquals(500, entry.getAdaptive_delay());
+        Assert.assertEquals(50, entry.getLatency());
+    }
+
+    @Test
+    public void testOverloadBacksOff() {
+        PolitenessEntry entry = new PolitenessEntry("busy.example.com", 1000, 0, 0);
+        controller.update(entry, controller.getFloor(entry), 100, 200);
+        int before = entry.getAdaptive_delay();
+        controller.update(entry, controller.getFloor(entry), 100, 503);
+        Assert.assertEquals(before * 2, entry.getAdaptive_delay());
+        controller.update(entry, controller.getFloor(entry), 100, 429);
+        Assert.assertEquals(before * 4, entry.getAdaptive_delay());
+        controller.update(entry, controller.getFloor(entry), 5000, AdaptiveDelayController.NO_RESPONSE);
+        Assert.assertEquals(before * 8, entry.getAdaptive_delay());
+    }
+
+    @Test
+    public void testRisingLatencyBacksOff() {
+        PolitenessEntry entry = new PolitenessEntry("slow.example.com", 1000, 0, 0);
+        controller.update(entry, controller.getFloor(entry), 100, 200);
+        int before = entry.getAdaptive_delay();
+        controller.update(entry, controller.getFloor(entry), 1000, 200);
+        Assert.assertEquals(before * 2, entry.getAdaptive_delay());
+    }
+
+    @Test
+    public void testConfiguredAndRobotsDelayAreNeverUndercut() {
+        PolitenessEntry entry = new PolitenessEntry("polite.example.com", 3000, 3000, 1000);
+        Assert.assertEquals(3000, controller.getFloor(entry));
+        for (int i = 0; i < 100; i++) {
+            controller.update(entry, controller.getFloor(entry), 10, 200);
+        }
+        Assert.assertEquals(3000, entry.getAdaptive_delay());
+    }
+}
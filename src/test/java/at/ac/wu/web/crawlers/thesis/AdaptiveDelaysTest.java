@@ -0,0 +1,65 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.AdaptiveDelayController;
+import at.ac.wu.web.crawlers.thesis.politeness.AdaptiveDelays;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveDelaysTest {
+
+    private final List<PolitenessEntry> stored = new ArrayList<>();
+    private final AdaptiveDelays delays = new AdaptiveDelays(new AdaptiveDelayController(
+            new PolitenessConfiguration.Adaptive().setMinDelay(500).setMaxDelay(60_000).setDecreaseStep(100)), 1000,
+                                                             1, TimeUnit.HOURS, stored::add);
+
+    @Test
+    public void testNoWriteWhileDelayIsUnchanged() {
+        PolitenessEntry entry = new PolitenessEntry("fast.example.com", 500, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            //The latency moves with every response, the delay stays at the floor
+            delays.update("fast.example.com", entry, 20 + i % 30, 200);
+        }
+        Assert.assertEquals(1, stored.size());
+        Assert.assertEquals(500, stored.get(0).getAdaptive_delay());
+        Assert.assertEquals("fast.example.com", stored.get(0).getDomain());
+
+        Assert.assertTrue(delays.update("fast.example.com", entry, 40, 503));
+        Assert.assertEquals(2, stored.size());
+        Assert.assertEquals(1000, stored.get(1).getAdaptive_delay());
+        Assert.assertEquals(1000, delays.getAdaptiveDelay("fast.example.com", entry));
+    }
+
+    @Test
+    public void testDomainsWithoutEntryAreKeptInMemory() {
+        Assert.assertTrue(delays.update("example.com", null, 100, 429));
+        Assert.assertEquals(2000, delays.getAdaptiveDelay("example.com", null));
+        Assert.assertEquals(0, delays.getAdaptiveDelay("other.com", null));
+        Assert.assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        PolitenessEntry entry = new PolitenessEntry("busy.example.com", 500, 0, 0);
+        delays.update("busy.example.com", entry, 100, 200);
+        Thread[] threads = new Thread[3];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2; i++) {
+                    delays.update("busy.example.com", entry, 100, 503);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        //Each of the six backoffs doubled the delay
+        Assert.assertEquals(500 << 6, delays.getAdaptiveDelay("busy.example.com", entry));
+    }
+}
@@ -0,0 +1,86 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.cache.CacheEntry;
+import at.ac.wu.web.crawlers.thesis.cache.CacheEntryCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+
+public class CacheEntryCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/html; charset=UTF-8");
+        headers.put("X-Empty", "");
+        headers.put("X-Unicode", "\u00e4\u00f6\u00fc \u20ac");
+        byte[] body = "<html>\u00fcber</html>".getBytes(StandardCharsets.UTF_8);
+        LocalDateTime time = LocalDateTime.of(2017, 8, 1, 12, 30, 15, 123456789);
+        CacheEntry entry = new CacheEntry(body, "http://example.com/a?b=c", 3600, false, true, null, time, headers,
+                                          false, null);
+
+        byte[] bytes = CacheEntryCodec.encode(entry);
+        CacheEntry decoded = CacheEntryCodec.decode(bytes);
+        Assert.assertEquals("http://example.com/a?b=c", decoded.getUrl());
+        Assert.assertEquals(3600, decoded.getMaxAge());
+        Assert.assertFalse(decoded.isNoCache());
+        Assert.assertTrue(decoded.isNoStore());
+        Assert.assertNull(decoded.getExpires());
+        Assert.assertEquals(time, decoded.getTime());
+        Assert.assertEquals(headers, decoded.getHeaders());
+        Assert.assertNull(decoded.getContentType());
+        Assert.assertArrayEquals(body, decoded.getData());
+        Assert.assertArrayEquals(body, read(decoded.getDataStream()));
+        Assert.assertEquals(bytes.length - body.length, decoded.getDataOffset());
+
+        //A decoded entry is written again without its surrounding bytes
+        decoded.setExpires(time.plusDays(1)).setContentType("text/html");
+        CacheEntry again = CacheEntryCodec.decode(CacheEntryCodec.encode(decoded));
+        Assert.assertEquals(time.plusDays(1), again.getExpires());
+        Assert.assertEquals("text/html", again.getContentType());
+        Assert.assertArrayEquals(body, again.getData());
+
+        //Records of a stored body only refer to it
+        CacheEntry record = CacheEntryCodec.decode(CacheEntryCodec.encode(entry, "body-key"));
+        Assert.assertEquals("body-key", record.getBodyKey());
+        Assert.assertEquals(headers, record.getHeaders());
+        Assert.assertEquals(0, record.getDataLength());
+        Assert.assertArrayEquals(body, record.setData(body).getData());
+        Assert.assertNull(record.getBodyKey());
+    }
+
+    @Test
+    public void testReadsJsonEntries() throws Exception {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("ETag", "\"abc\"");
+        LocalDateTime time = LocalDateTime.of(2017, 8, 1, 12, 0);
+        CacheEntry entry = new CacheEntry(new byte[]{1, 2, 3}, "http://example.com/", 60, true, false,
+                                          time.plusHours(1), time, headers, false, "text/plain");
+        byte[] json = new ObjectMapper().registerModule(new Jdk8Module()).registerModule(new JavaTimeModule())
+                .writeValueAsBytes(entry);
+
+        CacheEntry decoded = CacheEntryCodec.decode(json);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, decoded.getData());
+        Assert.assertEquals(time.plusHours(1), decoded.getExpires());
+        Assert.assertEquals(headers, decoded.getHeaders());
+        Assert.assertTrue(decoded.isNoCache());
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
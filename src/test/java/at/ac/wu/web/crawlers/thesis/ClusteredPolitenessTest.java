@@ -0,0 +1,116 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.HostLeases;
+import at.ac.wu.web.crawlers.thesis.politeness.HostSlots;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCluster;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts several cluster nodes within one JVM (JGroups shared loopback) and checks that
+ * the delay of a host holds for the requests of all nodes together.
+ */
+public class ClusteredPolitenessTest {
+
+    private static final int NODES = 3;
+    private static final long DELAY = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long PHASE = TimeUnit.MILLISECONDS.toNanos(300);
+    private final List<EmbeddedCacheManager> managers = new ArrayList<>();
+    private final List<HostSlots> slots = new ArrayList<>();
+    private final List<HostLeases> leases = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        PolitenessConfiguration.Cluster cluster = new PolitenessConfiguration.Cluster()
+                .setEnabled(true)
+                .setName("politeness-test")
+                .setJgroupsConfig("jgroups-test.xml")
+                .setLeaseDuration(100);
+        for (int i = 0; i < NODES; i++) {
+            EmbeddedCacheManager manager = PolitenessCluster.createCacheManager(cluster, "politenessTest", 60_000);
+            HostSlots nodeSlots = new HostSlots(1, TimeUnit.HOURS);
+            managers.add(manager);
+            slots.add(nodeSlots);
+            leases.add(new HostLeases(manager.getCache(PolitenessCluster.LEASE_CACHE), manager.getAddress()
+                    .toString(), cluster.getLeaseDuration(), nodeSlots));
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (managers.get(0).getMembers().size() < NODES) {
+            Assert.assertTrue("cluster did not form", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        slots.forEach(HostSlots::close);
+        managers.forEach(EmbeddedCacheManager::stop);
+    }
+
+    /**
+     * All nodes compete for the same host, in every phase one node pauses so the lease
+     * has to change hands. Slots granted by all nodes must never be closer together than
+     * the delay.
+     */
+    @Test
+    public void testAggregateRateStaysWithinLimit() throws Exception {
+        int threadsPerNode = 4;
+        long runtime = TimeUnit.SECONDS.toNanos(3);
+        ConcurrentLinkedQueue<Long> starts = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Integer> grantingNodes = new ConcurrentLinkedQueue<>();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int node = 0; node < NODES; node++) {
+            for (int i = 0; i < threadsPerNode; i++) {
+                int current = node;
+                Thread worker = new Thread(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long begin = System.nanoTime();
+                    long elapsed;
+                    while ((elapsed = System.nanoTime() - begin) < runtime) {
+                        if ((elapsed / PHASE) % NODES == current) {
+                            continue;
+                        }
+                        long start = leases.get(current).reserve("example.com", DELAY, 0L, 0L);
+                        if (start != HostSlots.NO_SLOT) {
+                            starts.add(start);
+                            if (!grantingNodes.contains(current)) {
+                                grantingNodes.add(current);
+                            }
+                        }
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+        }
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<Long> sorted = new ArrayList<>(starts);
+        Collections.sort(sorted);
+        Assert.assertTrue("too few slots granted: " + sorted.size(), sorted.size() > 10);
+        Assert.assertTrue("lease never changed hands", grantingNodes.size() > 1);
+        for (int i = 1; i < sorted.size(); i++) {
+            long gap = sorted.get(i) - sorted.get(i - 1);
+            Assert.assertTrue("gap of " + gap + "ns is shorter than the delay", gap >= DELAY);
+        }
+    }
+}
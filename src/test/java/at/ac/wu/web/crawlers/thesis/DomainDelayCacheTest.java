@@ -0,0 +1,58 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.DomainDelayCache;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessEntry;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessGroups;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * The Crawl-delay of robots.txt is given in seconds, delays are kept in milliseconds.
+ */
+public class DomainDelayCacheTest {
+
+    private DefaultCacheManager cacheManager;
+    private DomainDelayCache delayCache;
+
+    @Before
+    public void setUp() {
+        PolitenessGroups groups = new PolitenessGroups();
+        ReflectionTestUtils.setField(groups, "config", new PolitenessConfiguration().setGrouping(PolitenessGroups
+                .Grouping.DOMAIN));
+        cacheManager = new DefaultCacheManager(new ConfigurationBuilder().build());
+        //The cache is shared by all instances
+        ReflectionTestUtils.setField(DomainDelayCache.class, "cache", cacheManager.getCache());
+        delayCache = new DomainDelayCache();
+        ReflectionTestUtils.setField(delayCache, "groups", groups);
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionTestUtils.setField(DomainDelayCache.class, "cache", null);
+        cacheManager.stop();
+    }
+
+    @Test
+    public void testCrawlDelayIsSeconds() {
+        delayCache.updateRobotsDelay("news.orf.at", 1.5);
+        PolitenessEntry entry = delayCache.getEntry("news.orf.at");
+        Assert.assertEquals(1500, entry.getRobotstxt_delay());
+        Assert.assertEquals(1500, entry.getDelay());
+        //The crawl-delay applies to the whole group
+        Assert.assertEquals(1500, delayCache.getEntry("orf.at").getRobotstxt_delay());
+    }
+
+    @Test
+    public void testCrawlDelayRaisesConfiguredDelay() {
+        delayCache.putEntry(new PolitenessEntry("orf.at", 500, 0, 500));
+        delayCache.updateRobotsDelay("orf.at", 2.0);
+        Assert.assertEquals(2000, delayCache.getEntry("orf.at").getDelay());
+        Assert.assertEquals(500, delayCache.getEntry("orf.at").getConfigured_delay());
+    }
+}
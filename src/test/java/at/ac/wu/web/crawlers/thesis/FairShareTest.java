@@ -0,0 +1,69 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.FairShare;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class FairShareTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(10);
+    private FairShare fairShare;
+
+    @Before
+    public void setUp() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("heavy", 3);
+        fairShare = new FairShare(weights, 1, TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown() {
+        fairShare.close();
+    }
+
+    @Test
+    public void testWaitingClientGoesFirst() {
+        fairShare.served("example.com", "greedy");
+        Assert.assertTrue(fairShare.isTurn("example.com", "polite", WINDOW));
+        // greedy already had a slot while polite is waiting
+        Assert.assertFalse(fairShare.isTurn("example.com", "greedy", WINDOW));
+        fairShare.served("example.com", "polite");
+        Assert.assertTrue(fairShare.isTurn("example.com", "greedy", WINDOW));
+        // other groups are not affected
+        Assert.assertTrue(fairShare.isTurn("example.org", "greedy", WINDOW));
+        Assert.assertEquals(1L, fairShare.getStats().get("greedy").getDenied());
+    }
+
+    @Test
+    public void testSlotsAreSharedByWeight() {
+        List<String> clients = Arrays.asList("heavy", "light");
+        Map<String, Integer> served = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            String next = fairShare.next("example.com", clients);
+            fairShare.served("example.com", next, 0L);
+            served.merge(next, 1, Integer::sum);
+        }
+        Assert.assertEquals(300, (int) served.get("heavy"));
+        Assert.assertEquals(100, (int) served.get("light"));
+    }
+
+    @Test
+    public void testReturningClientCannotClaimUnusedSlots() {
+        for (int i = 0; i < 10; i++) {
+            fairShare.served("example.com", "busy", 0L);
+        }
+        // a client joining late starts at the current virtual time instead of getting ten slots in a row
+        fairShare.served("example.com", "late", 0L);
+        Assert.assertEquals("busy", fairShare.next("example.com", Arrays.asList("busy", "late")));
+        Assert.assertNull(fairShare.next("example.com", Collections.emptyList()));
+    }
+}
@@ -0,0 +1,126 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.HostSlots;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HostSlotsTest {
+
+    private static final long DELAY = TimeUnit.MILLISECONDS.toNanos(20);
+    private HostSlots slots;
+
+    @Before
+    public void setUp() {
+        slots = new HostSlots(1, TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown() {
+        slots.close();
+    }
+
+    @Test
+    public void testHostsAreIndependent() {
+        Assert.assertTrue(slots.tryAcquire("news.orf.at", DELAY));
+        Assert.assertFalse(slots.isAllowed("news.orf.at"));
+        Assert.assertFalse(slots.tryAcquire("news.orf.at", DELAY));
+        // a host sharing the prefix must not be blocked
+        Assert.assertTrue(slots.isAllowed("news.orf.at.evil.com"));
+        Assert.assertTrue(slots.tryAcquire("news.orf.at.evil.com", DELAY));
+    }
+
+    @Test
+    public void testReserveWithinMaxWait() {
+        long first = slots.reserve("example.com", DELAY, 0L);
+        Assert.assertNotEquals(HostSlots.NO_SLOT, first);
+        Assert.assertEquals(HostSlots.NO_SLOT, slots.reserve("example.com", DELAY, 0L));
+        long second = slots.reserve("example.com", DELAY, 2 * DELAY);
+        Assert.assertEquals(first + DELAY, second);
+        Assert.assertTrue(slots.nanosUntilAllowed("example.com") > DELAY);
+    }
+
+    @Test
+    public void testTokenBucketAllowsBurst() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(500);
+        long tolerance = 2 * interval;
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotEquals(HostSlots.NO_SLOT, slots.reserve("example.com", interval, tolerance, 0L,
+                                                                    HostSlots.NO_DEADLINE));
+        }
+        Assert.assertEquals(HostSlots.NO_SLOT, slots.reserve("example.com", interval, tolerance, 0L,
+                                                             HostSlots.NO_DEADLINE));
+        Assert.assertTrue(slots.nanosUntilAllowed("example.com", tolerance) > 0L);
+        // without the burst the host keeps its fixed delay
+        Assert.assertNotEquals(HostSlots.NO_SLOT, slots.reserve("example.org", interval, 0L, 0L,
+                                                                HostSlots.NO_DEADLINE));
+        Assert.assertEquals(HostSlots.NO_SLOT, slots.reserve("example.org", interval, 0L, 0L,
+                                                             HostSlots.NO_DEADLINE));
+    }
+
+    @Test
+    public void testMaxConcurrent() {
+        Assert.assertTrue(slots.tryEnter("example.com", 2));
+        Assert.assertTrue(slots.tryEnter("example.com", 2));
+        Assert.assertFalse(slots.tryEnter("example.com", 2));
+        Assert.assertTrue(slots.tryEnter("example.org", 2));
+        Assert.assertEquals(2, slots.getInFlight("example.com"));
+        slots.exit("example.com");
+        Assert.assertTrue(slots.tryEnter("example.com", 2));
+        Assert.assertEquals(2, slots.getInFlight().size());
+    }
+
+    /**
+     * Many threads competing for the same host must never get slots closer together
+     * than the delay.
+     */
+    @Test
+    public void testConcurrentAcquireKeepsDelay() throws Exception {
+        int threads = 32;
+        long runtime = TimeUnit.SECONDS.toNanos(2);
+        ConcurrentLinkedQueue<Long> starts = new ConcurrentLinkedQueue<>();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.nanoTime() + runtime;
+                while (System.nanoTime() - end < 0) {
+                    long start = slots.reserve("example.com", DELAY, 0L);
+                    if (start != HostSlots.NO_SLOT) {
+                        starts.add(start);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        ready.await();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<Long> sorted = new ArrayList<>(starts);
+        Collections.sort(sorted);
+        Assert.assertTrue("too few slots granted: " + sorted.size(), sorted.size() > 10);
+        for (int i = 1; i < sorted.size(); i++) {
+            long gap = sorted.get(i) - sorted.get(i - 1);
+            Assert.assertTrue("gap of " + gap + "ns is shorter than the delay", gap >= DELAY);
+        }
+    }
+}
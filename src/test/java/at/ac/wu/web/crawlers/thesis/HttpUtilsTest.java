@@ -0,0 +1,87 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class HttpUtilsTest {
+
+    private static final long NOW = 1_500_000_000_000L;
+
+    @Test
+    public void testRetryAfterSeconds() {
+        Assert.assertEquals(120_000, HttpUtils.parseRetryAfter("120", NOW));
+        Assert.assertEquals(0, HttpUtils.parseRetryAfter(" 0 ", NOW));
+    }
+
+    @Test
+    public void testRetryAfterDate() {
+        Assert.assertEquals(90_000, HttpUtils.parseRetryAfter(DateUtils.formatDate(new Date(NOW + 90_000)), NOW));
+        //A date in the past allows to retry at once
+        Assert.assertEquals(0, HttpUtils.parseRetryAfter(DateUtils.formatDate(new Date(NOW - 90_000)), NOW));
+    }
+
+    @Test
+    public void testInvalidRetryAfter() {
+        Assert.assertEquals(-1, HttpUtils.parseRetryAfter(null, NOW));
+        Assert.assertEquals(-1, HttpUtils.parseRetryAfter("", NOW));
+        Assert.assertEquals(-1, HttpUtils.parseRetryAfter("soon", NOW));
+        Assert.assertEquals(-1, HttpUtils.parseRetryAfter("-5", NOW));
+        Assert.assertEquals(-1, HttpUtils.parseRetryAfter("12abc", NOW));
+        Assert.assertEquals(-1, HttpUtils.parseRetryAfter("99999999999999999999", NOW));
+    }
+
+    @Test
+    public void testFormatRetryAfterInSeconds() {
+        Assert.assertEquals("0", HttpUtils.formatRetryAfter(0));
+        Assert.assertEquals("1", HttpUtils.formatRetryAfter(1));
+        Assert.assertEquals("1", HttpUtils.formatRetryAfter(1000));
+        Assert.assertEquals("2", HttpUtils.formatRetryAfter(1001));
+        Assert.assertEquals("3600", HttpUtils.formatRetryAfter(3_600_000));
+    }
+
+    @Test
+    public void testFreshnessSMaxAgeOverMaxAge() {
+        Assert.assertEquals(30_000, HttpUtils.parseFreshness("max-age=60, s-maxage=30", null, null, NOW));
+        Assert.assertEquals(30_000, HttpUtils.parseFreshness("public, s-maxage=30, max-age=60", null, null, NOW));
+        Assert.assertEquals(60_000, HttpUtils.parseFreshness("public, max-age=60", null, null, NOW));
+        //max-age wins over Expires
+        Assert.assertEquals(60_000, HttpUtils.parseFreshness("max-age=60", DateUtils.formatDate(new Date(NOW +
+                3_600_000)), null, NOW));
+    }
+
+    @Test
+    public void testFreshnessNoCache() {
+        Assert.assertEquals(0, HttpUtils.parseFreshness("no-cache", null, null, NOW));
+        Assert.assertEquals(0, HttpUtils.parseFreshness("max-age=60, No-Store", null, null, NOW));
+        Assert.assertEquals(0, HttpUtils.parseFreshness("s-maxage=60, no-cache", null, null, NOW));
+        Assert.assertEquals(0, HttpUtils.parseFreshness("no-cache", DateUtils.formatDate(new Date(NOW +
+                3_600_000)), null, NOW));
+    }
+
+    @Test
+    public void testFreshnessExpiresRelativeToDate() {
+        String expires = DateUtils.formatDate(new Date(NOW + 600_000));
+        Assert.assertEquals(600_000, HttpUtils.parseFreshness(null, expires, null, NOW));
+        //The clock of the server is an hour behind, the response is fresh for 10 minutes all the same
+        Assert.assertEquals(600_000, HttpUtils.parseFreshness(null, DateUtils.formatDate(new Date(NOW - 3_000_000)),
+                                                              DateUtils.formatDate(new Date(NOW - 3_600_000)), NOW));
+        //Invalid Date headers are ignored
+        Assert.assertEquals(600_000, HttpUtils.parseFreshness(null, expires, "yesterday", NOW));
+        Assert.assertEquals(0, HttpUtils.parseFreshness(null, DateUtils.formatDate(new Date(NOW - 600_000)), null,
+                                                        NOW));
+        //Invalid Expires headers mean already expired
+        Assert.assertEquals(0, HttpUtils.parseFreshness(null, "0", null, NOW));
+        //Unknown directives leave it to Expires
+        Assert.assertEquals(600_000, HttpUtils.parseFreshness("public, max-age=soon", expires, null, NOW));
+    }
+
+    @Test
+    public void testFreshnessUnknown() {
+        Assert.assertEquals(-1, HttpUtils.parseFreshness(null, null, null, NOW));
+        Assert.assertEquals(-1, HttpUtils.parseFreshness("public", null, null, NOW));
+    }
+}
@@ -0,0 +1,106 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.cache.CacheEntry;
+import at.ac.wu.web.crawlers.thesis.cache.CacheEntryCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary {@link CacheEntryCodec} with the JSON serialisation the page cache used
+ * before, which created an ObjectMapper for every put and get and base64-encoded the body.
+ * A get includes reading the body as the filter does when it serves a cached page.
+ * <p>
+ * Run with <tt>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=at.ac.wu.web.crawlers.thesis.PageCacheCodecBenchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageCacheCodecBenchmark {
+
+    @Param({"10240", "102400", "1048576", "5242880"})
+    public int size;
+    private CacheEntry entry;
+    private byte[] json;
+    private byte[] binary;
+    private byte[] buffer = new byte[8192];
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(PageCacheCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] body = new byte[size];
+        new Random(42).nextBytes(body);
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/html; charset=UTF-8");
+        headers.put("Cache-Control", "max-age=3600");
+        headers.put("ETag", "\"5f3e-55d8a1c2\"");
+        headers.put("Last-Modified", "Tue, 01 Aug 2017 10:00:00 GMT");
+        headers.put("Server", "Apache");
+        LocalDateTime time = LocalDateTime.now();
+        entry = new CacheEntry(body, "http://example.com/some/page.html", 3600, false, false, time.plusHours(1),
+                               time, headers, false, "text/html");
+        json = mapper().writeValueAsBytes(entry);
+        binary = CacheEntryCodec.encode(entry);
+    }
+
+    private static ObjectMapper mapper() {
+        return new ObjectMapper().registerModule(new Jdk8Module()).registerModule(new JavaTimeModule());
+    }
+
+    @Benchmark
+    public byte[] putJson() throws Exception {
+        return mapper().writeValueAsBytes(entry);
+    }
+
+    @Benchmark
+    public byte[] putBinary() {
+        return CacheEntryCodec.encode(entry);
+    }
+
+    @Benchmark
+    public long getJson() throws Exception {
+        return consume(mapper().readValue(json, CacheEntry.class));
+    }
+
+    @Benchmark
+    public long getBinary() throws Exception {
+        return consume(CacheEntryCodec.decode(binary));
+    }
+
+    private long consume(CacheEntry cached) throws Exception {
+        long total = 0;
+        try (InputStream in = cached.getDataStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
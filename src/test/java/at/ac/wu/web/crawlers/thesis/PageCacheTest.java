@@ -0,0 +1,124 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.cache.CacheEntry;
+import at.ac.wu.web.crawlers.thesis.cache.CacheEntryCodec;
+import at.ac.wu.web.crawlers.thesis.cache.CacheKey;
+import at.ac.wu.web.crawlers.thesis.cache.PageCache;
+import at.ac.wu.web.crawlers.thesis.cache.PageCacheConfiguration;
+import org.infinispan.Cache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page bodies are stored once and shared by the records of all keys referring to them.
+ */
+public class PageCacheTest {
+
+    private static final long RECORD_LIFESPAN = TimeUnit.DAYS.toMillis(1);
+    private static final byte[] BODY = "<html>page</html>".getBytes(StandardCharsets.UTF_8);
+    private File directory;
+    private long now = System.currentTimeMillis();
+    private PageCache pageCache;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("page-cache-test").toFile();
+        resetCaches();
+        pageCache = new PageCache() {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        ReflectionTestUtils.setField(pageCache, "cacheProperties", new PageCacheConfiguration()
+                .setDirectory(directory.getAbsolutePath())
+                .setJmxDomain("pageCacheTest")
+                .setThreads(1));
+    }
+
+    @After
+    public void tearDown() {
+        Cache<?, ?> cache = (Cache<?, ?>) ReflectionTestUtils.getField(PageCache.class, "cache");
+        if (cache != null) {
+            cache.getCacheManager().stop();
+        }
+        resetCaches();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testBodyIsStoredOnce() {
+        CacheKey page = new CacheKey("http://example.com/a");
+        CacheKey html = new CacheKey("http://example.com/a", "text/html");
+        CacheKey copy = new CacheKey("http://example.com/b");
+        pageCache.addPage(Arrays.asList(page, html), entry("http://example.com/a"));
+        pageCache.addPage(copy, entry("http://example.com/b"));
+
+        Assert.assertEquals(1, pageCache.getBodyCache().size());
+        Assert.assertEquals(3, pageCache.getCache().size());
+        for (CacheKey key : Arrays.asList(page, html, copy)) {
+            CacheEntry entry = pageCache.getEntry(key);
+            Assert.assertNotNull(key.toString(), entry);
+            Assert.assertArrayEquals(BODY, entry.getData());
+        }
+        Assert.assertEquals("http://example.com/b", pageCache.getEntry(copy).getUrl());
+    }
+
+    @Test
+    public void testMissingBodyIsMiss() {
+        CacheKey key = new CacheKey("http://example.com/a");
+        pageCache.addPage(key, entry("http://example.com/a"));
+        pageCache.getBodyCache().clear();
+
+        Assert.assertNull(pageCache.getEntry(key));
+        Assert.assertFalse(pageCache.exists(key));
+
+        //The body is written again by the next page referring to it
+        pageCache.addPage(key, entry("http://example.com/a"));
+        Assert.assertArrayEquals(BODY, pageCache.getEntry(key).getData());
+    }
+
+    @Test
+    public void testBodyIsRewrittenAfterRecordLifespan() throws Exception {
+        CacheKey key = new CacheKey("http://example.com/a");
+        pageCache.addPage(key, entry("http://example.com/a"));
+        String bodyKey = CacheEntryCodec.decode(pageCache.getCache().get(key)).getBodyKey();
+        byte[] marker = "stale".getBytes(StandardCharsets.UTF_8);
+        pageCache.getBodyCache().put(bodyKey, marker);
+
+        //The stored body outlives records added within one record lifespan
+        now += RECORD_LIFESPAN;
+        pageCache.addPage(key, entry("http://example.com/a"));
+        Assert.assertArrayEquals(marker, pageCache.getBodyCache().get(bodyKey));
+
+        now += 1;
+        pageCache.addPage(key, entry("http://example.com/a"));
+        Assert.assertArrayEquals(BODY, pageCache.getBodyCache().get(bodyKey));
+    }
+
+    private static CacheEntry entry(String url) {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/html");
+        return new CacheEntry(BODY, url, 3600, false, false, null, LocalDateTime.now(), headers, false,
+                              "text/html");
+    }
+
+    private static void resetCaches() {
+        //The caches are shared by all instances
+        ReflectionTestUtils.setField(PageCache.class, "cache", null);
+        ReflectionTestUtils.setField(PageCache.class, "bodies", null);
+        ReflectionTestUtils.setField(PageCache.class, "bodyWrites", null);
+    }
+}
@@ -0,0 +1,77 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.DomainDelayCache;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCluster;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessEntry;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessGroups;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PolitenessCacheTest {
+
+    private PolitenessCache cache;
+
+    @Before
+    public void setUp() {
+        PolitenessConfiguration config = new PolitenessConfiguration().setDefaultDomain(new PolitenessEntry(
+                "default", 0, 0, 0)).setDefaultBackoff(3000).setMaxBackoff(10_000);
+        PolitenessGroups groups = new PolitenessGroups();
+        ReflectionTestUtils.setField(groups, "config", config);
+        PolitenessCluster cluster = new PolitenessCluster();
+        ReflectionTestUtils.setField(cluster, "config", config);
+        cache = new PolitenessCache();
+        ReflectionTestUtils.setField(cache, "config", config);
+        ReflectionTestUtils.setField(cache, "groups", groups);
+        ReflectionTestUtils.setField(cache, "cluster", cluster);
+        ReflectionTestUtils.setField(cache, "delayCache", new DomainDelayCache() {
+            @Override
+            public PolitenessEntry getEntryForHost(String host) {
+                return null;
+            }
+        });
+        cache.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        cache.destroy();
+    }
+
+    @Test
+    public void testBackOffForRetryAfter() {
+        cache.backOff("a.example.com", 429, "5");
+        assertPause(5000, cache.getRemainingDelay("a.example.com"));
+        cache.backOff("b.example.com", 503, "Thu, 01 Jan 2099 00:00:00 GMT");
+        assertPause(10_000, cache.getRemainingDelay("b.example.com"));
+    }
+
+    @Test
+    public void testBackOffDefault() {
+        cache.backOff("a.example.com", 429, null);
+        assertPause(3000, cache.getRemainingDelay("a.example.com"));
+        cache.backOff("b.example.com", 503, "soon");
+        assertPause(3000, cache.getRemainingDelay("b.example.com"));
+    }
+
+    @Test
+    public void testBackOffIsClamped() {
+        cache.backOff("a.example.com", 429, "86400");
+        assertPause(10_000, cache.getRemainingDelay("a.example.com"));
+    }
+
+    @Test
+    public void testOtherStatusCodesDoNotBackOff() {
+        cache.backOff("a.example.com", 500, "60");
+        cache.backOff("a.example.com", 200, "60");
+        Assert.assertEquals(0, cache.getRemainingDelay("a.example.com"));
+    }
+
+    private static void assertPause(int expected, int remaining) {
+        Assert.assertTrue("remaining " + remaining, remaining <= expected && remaining > expected - 1000);
+    }
+}
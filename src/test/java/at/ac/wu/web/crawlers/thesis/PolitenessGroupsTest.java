@@ -0,0 +1,130 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessGroups;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PolitenessGroupsTest {
+
+    private final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+    private final CountDownLatch slowLookup = new CountDownLatch(1);
+
+    @Test
+    public void testHostGrouping() {
+        PolitenessGroups groups = groups(new PolitenessConfiguration());
+        Assert.assertEquals("news.orf.at", groups.groupOf("news.orf.at"));
+        Assert.assertEquals("sport.orf.at", groups.groupOf("sport.orf.at"));
+        Assert.assertTrue(lookups.isEmpty());
+    }
+
+    @Test
+    public void testDomainGrouping() {
+        PolitenessGroups groups = groups(new PolitenessConfiguration().setGrouping(PolitenessGroups.Grouping.DOMAIN));
+        Assert.assertEquals("orf.at", groups.groupOf("news.orf.at"));
+        Assert.assertEquals("orf.at", groups.groupOf("sport.orf.at"));
+        Assert.assertEquals("orf.at", groups.groupOf("orf.at"));
+        //public suffixes of several labels
+        Assert.assertEquals("bbc.co.uk", groups.groupOf("www.bbc.co.uk"));
+        Assert.assertEquals("bbc.co.uk", groups.groupOf("news.bbc.co.uk"));
+        Assert.assertEquals("example.com.au", groups.groupOf("a.b.example.com.au"));
+        Assert.assertEquals("10.0.0.1", groups.groupOf("10.0.0.1"));
+        Assert.assertTrue(lookups.isEmpty());
+    }
+
+    @Test
+    public void testIpGrouping() {
+        PolitenessGroups groups = groups(new PolitenessConfiguration().setGrouping(PolitenessGroups.Grouping.IP));
+        Assert.assertEquals("192.0.2.1", groups.groupOf("a.example.com"));
+        Assert.assertEquals("192.0.2.1", groups.groupOf("b.example.com"));
+        Assert.assertEquals("192.0.2.2", groups.groupOf("c.example.com"));
+        Assert.assertEquals("192.0.2.1", groups.groupOf("a.example.com"));
+        Assert.assertEquals(1, lookups.get("a.example.com").get());
+        //addresses are not resolved
+        Assert.assertEquals("192.0.2.9", groups.groupOf("192.0.2.9"));
+        Assert.assertNull(lookups.get("192.0.2.9"));
+    }
+
+    /**
+     * Hosts are resolved again after the TTL, failed lookups after the negative TTL.
+     */
+    @Test
+    public void testIpGroupsExpire() throws Exception {
+        PolitenessGroups groups = groups(new PolitenessConfiguration().setGrouping(PolitenessGroups.Grouping.IP)
+                                                 .setGroupTtl(100).setGroupNegativeTtl(20));
+        Assert.assertEquals("unknown.example.com", groups.groupOf("unknown.example.com"));
+        Assert.assertEquals("unknown.example.com", groups.groupOf("unknown.example.com"));
+        Assert.assertEquals(1, lookups.get("unknown.example.com").get());
+        Assert.assertEquals("192.0.2.1", groups.groupOf("a.example.com"));
+        Thread.sleep(50);
+        groups.groupOf("unknown.example.com");
+        groups.groupOf("a.example.com");
+        Assert.assertEquals(2, lookups.get("unknown.example.com").get());
+        Assert.assertEquals(1, lookups.get("a.example.com").get());
+        Thread.sleep(100);
+        Assert.assertEquals("192.0.2.1", groups.groupOf("a.example.com"));
+        Assert.assertEquals(2, lookups.get("a.example.com").get());
+    }
+
+    /**
+     * Concurrent requests to a host wait for one lookup, other hosts are resolved meanwhile.
+     */
+    @Test(timeout = 10_000)
+    public void testSlowLookupDoesNotBlockOtherHosts() throws Exception {
+        PolitenessGroups groups = groups(new PolitenessConfiguration().setGrouping(PolitenessGroups.Grouping.IP));
+        List<Thread> threads = new ArrayList<>();
+        List<String> resolved = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(() -> resolved.add(groups.groupOf("slow.example.com")));
+            thread.start();
+            threads.add(thread);
+        }
+        while (!lookups.containsKey("slow.example.com")) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("192.0.2.1", groups.groupOf("host" + i + ".example.com"));
+        }
+        Assert.assertTrue(resolved.isEmpty());
+
+        slowLookup.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        Assert.assertEquals(Arrays.asList("192.0.2.1", "192.0.2.1", "192.0.2.1"), resolved);
+        Assert.assertEquals(1, lookups.get("slow.example.com").get());
+    }
+
+    private PolitenessGroups groups(PolitenessConfiguration config) {
+        PolitenessGroups groups = new PolitenessGroups() {
+            @Override
+            protected String lookup(String host) throws UnknownHostException {
+                lookups.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+                if (host.startsWith("slow.")) {
+                    try {
+                        slowLookup.await();
+                    } catch (InterruptedException e) {
+                        throw new UnknownHostException(host);
+                    }
+                }
+                if (host.startsWith("unknown.")) {
+                    throw new UnknownHostException(host);
+                }
+                return host.startsWith("c.") ? "192.0.2.2" : "192.0.2.1";
+            }
+        };
+        ReflectionTestUtils.setField(groups, "config", config);
+        return groups;
+    }
+}
@@ -0,0 +1,159 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.DomainDelayCache;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCluster;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessEntry;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessGroups;
+import at.ac.wu.web.crawlers.thesis.politeness.RequestScheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RequestSchedulerTest {
+
+    private static final int DELAY = 50;
+    private static final String HOST = "example.com";
+
+    private PolitenessCache cache;
+    private RequestScheduler scheduler;
+    private final List<String> served = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> times = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> rejected = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        PolitenessConfiguration config = new PolitenessConfiguration().setDefaultDomain(new PolitenessEntry(
+                "default", DELAY, 0, 0)).setDelayForward(true).setForwardThreads(4).setTick(5).setMaxWait(1000)
+                .setFairness(new PolitenessConfiguration.Fairness().setEnabled(true));
+        PolitenessGroups groups = new PolitenessGroups();
+        ReflectionTestUtils.setField(groups, "config", config);
+        PolitenessCluster cluster = new PolitenessCluster();
+        ReflectionTestUtils.setField(cluster, "config", config);
+        cache = new PolitenessCache();
+        ReflectionTestUtils.setField(cache, "config", config);
+        ReflectionTestUtils.setField(cache, "groups", groups);
+        ReflectionTestUtils.setField(cache, "cluster", cluster);
+        ReflectionTestUtils.setField(cache, "delayCache", new DomainDelayCache() {
+            @Override
+            public PolitenessEntry getEntryForHost(String host) {
+                return null;
+            }
+        });
+        cache.afterPropertiesSet();
+        scheduler = new RequestScheduler();
+        ReflectionTestUtils.setField(scheduler, "config", config);
+        ReflectionTestUtils.setField(scheduler, "politenessCache", cache);
+        scheduler.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.destroy();
+        cache.destroy();
+    }
+
+    /**
+     * Queued requests keep their order per client, clients take turns and every request
+     * gets its own slot.
+     */
+    @Test
+    public void testQueueOrder() throws Exception {
+        CountDownLatch done = new CountDownLatch(5);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (String request : new String[]{"a1", "a2", "a3", "b1", "b2"}) {
+            scheduler.enqueue(HOST, request.substring(0, 1), () -> {
+                times.add(System.nanoTime());
+                served.add(request);
+                done.countDown();
+            }, () -> rejected.add(request), deadline);
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(rejected.isEmpty());
+        Assert.assertTrue(served.indexOf("a1") < served.indexOf("a2"));
+        Assert.assertTrue(served.indexOf("a2") < served.indexOf("a3"));
+        Assert.assertTrue(served.indexOf("b1") < served.indexOf("b2"));
+        //b does not wait for all requests of a
+        Assert.assertTrue(served.toString(), served.indexOf("b1") < served.indexOf("a3"));
+        for (int i = 1; i < times.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(times.get(i) - times.get(0));
+            Assert.assertTrue("gap " + gap, gap >= i * DELAY - 15);
+        }
+        Assert.assertEquals(0, scheduler.getWaiting());
+    }
+
+    /**
+     * Requests still queued at their deadline are rejected instead of forwarded.
+     */
+    @Test
+    public void testRejectedAfterMaxWait() throws Exception {
+        CountDownLatch done = new CountDownLatch(3);
+        long now = System.nanoTime();
+        enqueue("first", now + TimeUnit.SECONDS.toNanos(5), done);
+        enqueue("second", now + TimeUnit.SECONDS.toNanos(5), done);
+        //queued behind the others of the client, its turn comes one delay from now
+        enqueue("third", now + TimeUnit.MILLISECONDS.toNanos(DELAY / 2), done);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, served.size());
+        Assert.assertEquals(Collections.singletonList("third"), rejected);
+        Assert.assertEquals(0, scheduler.getWaiting());
+    }
+
+    /**
+     * A host backing off for longer than the maximum wait rejects the queued requests once
+     * their deadline passed.
+     */
+    @Test
+    public void testRejectedWhileBackingOff() throws Exception {
+        cache.backOff(HOST, 429, "60");
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        enqueue("request", start + TimeUnit.MILLISECONDS.toNanos(100), done);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(served.isEmpty());
+        Assert.assertEquals(Collections.singletonList("request"), rejected);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+    }
+
+    /**
+     * Requests still waiting when the scheduler shuts down are rejected, none is dropped.
+     */
+    @Test
+    public void testDestroyRejectsWaitingRequests() throws Exception {
+        cache.backOff(HOST, 429, "60");
+        CountDownLatch done = new CountDownLatch(2);
+        enqueue("queued", System.nanoTime() + TimeUnit.SECONDS.toNanos(5), done);
+        scheduler.schedule(() -> served.add("delayed"), () -> {
+            rejected.add("delayed");
+            done.countDown();
+        }, TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(2, scheduler.getWaiting());
+
+        scheduler.destroy();
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(served.isEmpty());
+        Assert.assertTrue(rejected.toString(), rejected.containsAll(Arrays.asList("queued", "delayed")));
+        Assert.assertEquals(0, scheduler.getWaiting());
+    }
+
+    private void enqueue(String request, long deadline, CountDownLatch done) {
+        scheduler.enqueue(HOST, "client", () -> {
+            served.add(request);
+            done.countDown();
+        }, () -> {
+            rejected.add(request);
+            done.countDown();
+        }, deadline);
+    }
+}
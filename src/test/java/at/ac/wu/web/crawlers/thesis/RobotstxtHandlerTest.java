@@ -0,0 +1,744 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.HostDirectives;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtParser;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtPrefetch;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtRecord;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.UserAgentDirectives;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RobotstxtHandlerTest {
+
+    private static final int REQUESTS = 500;
+    private static final int HOSTS = 5;
+
+    /**
+     * Many first requests to the same hosts arriving at once must send only one robots.txt
+     * request per host.
+     */
+    @Test
+    public void testSingleFetchPerHost() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        ConcurrentHashMap<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        RobotstxtHandler handler = new RobotstxtHandler() {
+            {
+                this.config = configuration;
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                fetches.computeIfAbsent(url.getHost(), h -> new AtomicInteger()).incrementAndGet();
+                try {
+                    // a slow upstream keeps the fetch in flight while the other requests arrive
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return RobotstxtParser.parse("User-agent: *\nDisallow: /private", configuration);
+            }
+        };
+        handler.afterPropertiesSet();
+
+        ExecutorService pool = Executors.newFixedThreadPool(REQUESTS);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < REQUESTS; i++) {
+                URL url = new URL("http://host" + (i % HOSTS) + ".example.com/private/" + i);
+                results.add(pool.submit(() -> {
+                    go.await();
+                    return handler.allows(url);
+                }));
+            }
+            go.countDown();
+            for (Future<Boolean> result : results) {
+                Assert.assertFalse(result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Assert.assertEquals(HOSTS, fetches.size());
+        for (Map.Entry<String, AtomicInteger> entry : fetches.entrySet()) {
+            Assert.assertEquals("fetches of " + entry.getKey(), 1, entry.getValue().get());
+        }
+    }
+
+    /**
+     * A batch fetches each host once and decides every URL like a single check.
+     */
+    @Test
+    public void testBatchMatchesSingleChecks() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setBatchThreads(4);
+        ConcurrentHashMap<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        RobotstxtHandler handler = new RobotstxtHandler() {
+            {
+                this.config = configuration;
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                fetches.computeIfAbsent(url.getHost(), h -> new AtomicInteger()).incrementAndGet();
+                String host = url.getHost().toLowerCase();
+                return RobotstxtParser.parse("User-agent: *\nDisallow: /private\nAllow: /private/" + host,
+                                             configuration);
+            }
+        };
+        handler.afterPropertiesSet();
+        try {
+            List<URL> urls = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                String host = "host" + (i % 12) + ".example.com";
+                String path = i % 3 == 0 ? "/private/" + (i % 2 == 0 ? host : "x") : "/page" + i;
+                urls.add(new URL("http://" + host.toUpperCase() + path));
+            }
+            boolean[] allowed = handler.allows(urls, null);
+            Assert.assertEquals(12, fetches.size());
+            for (Map.Entry<String, AtomicInteger> entry : fetches.entrySet()) {
+                Assert.assertEquals("fetches of " + entry.getKey(), 1, entry.getValue().get());
+            }
+            for (int i = 0; i < urls.size(); i++) {
+                Assert.assertEquals(urls.get(i).toString(), handler.allows(urls.get(i)), allowed[i]);
+            }
+            Assert.assertTrue(allowed[1]);
+            Assert.assertFalse(allowed[3]);
+            Assert.assertTrue(allowed[6]);
+            Assert.assertEquals(0, handler.allows(new ArrayList<>(), null).length);
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    /**
+     * Directives restored from the store must decide like the ones fetched originally.
+     */
+    @Test
+    public void testStoredDirectivesRoundTrip() {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        String robotstxt = "# comment\n" +
+                "User-agent: *\n" +
+                "Disallow: /private\n" +
+                "Allow: /private/public$\n" +
+                "Crawl-delay: 2.5\n" +
+                "\n" +
+                "User-agent: wu-is-crawler\n" +
+                "Disallow: /*.pdf\n" +
+                "Sitemap: http://example.com/sitemap.xml\n";
+        HostDirectives fetched = RobotstxtParser.parse(robotstxt, configuration)
+                .setTimeFetched(42L)
+                .setEtag("\"abc\"");
+
+        HostDirectives restored = RobotstxtRecord.of(fetched).toDirectives(configuration);
+
+        Assert.assertEquals(42L, restored.getTimeFetched());
+        Assert.assertEquals("\"abc\"", restored.getEtag());
+        Assert.assertNull(restored.getLastModified());
+        for (String path : new String[]{"/", "/private", "/private/public", "/private/public/x", "/a.pdf", "/a.html"}) {
+            Assert.assertEquals(path, fetched.allows(path), restored.allows(path));
+        }
+        Double crawlDelay = null;
+        for (UserAgentDirectives directives : restored.getRules()) {
+            if (directives.getCrawlDelay() != null) {
+                crawlDelay = directives.getCrawlDelay();
+            }
+        }
+        Assert.assertEquals(2.5, crawlDelay, 0.0);
+        Assert.assertEquals(Collections.singletonList("http://example.com/sitemap.xml"), restored.getSitemaps());
+    }
+
+    /**
+     * The longest matching rule decides, allow wins if rules of the same length match.
+     */
+    @Test
+    public void testLongestMatchWins() {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        HostDirectives directives = RobotstxtParser.parse("User-agent: *\n" +
+                                                                  "Disallow: /shop\n" +
+                                                                  "Allow: /shop/items\n" +
+                                                                  "Disallow: /shop/items/*.pdf$\n" +
+                                                                  "Disallow: /page\n" +
+                                                                  "Allow: /page\n" +
+                                                                  "Disallow: /*?session=\n" +
+                                                                  "Allow: /index.html$\n" +
+                                                                  "Disallow: /index\n" +
+                                                                  "Disallow:\n", configuration);
+        Assert.assertTrue(directives.allows("/"));
+        Assert.assertTrue(directives.allows(""));
+        Assert.assertFalse(directives.allows("/shop"));
+        Assert.assertFalse(directives.allows("/shop/cart"));
+        Assert.assertTrue(directives.allows("/shop/items"));
+        Assert.assertTrue(directives.allows("/shop/items/a.html"));
+        Assert.assertFalse(directives.allows("/shop/items/a.pdf"));
+        Assert.assertTrue(directives.allows("/shop/items/a.pdf.html"));
+        Assert.assertTrue(directives.allows("/page/1"));
+        Assert.assertFalse(directives.allows("/list?session=1"));
+        Assert.assertTrue(directives.allows("/index.html"));
+        Assert.assertFalse(directives.allows("/index.html5"));
+        Assert.assertFalse(directives.allows("/index.php"));
+    }
+
+    /**
+     * Only the groups naming the configured agent apply, several of them are merged.
+     */
+    @Test
+    public void testMostSpecificGroupsApply() {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        HostDirectives directives = RobotstxtParser.parse("User-agent: *\n" +
+                                                                  "Disallow: /\n" +
+                                                                  "Crawl-delay: 10\n" +
+                                                                  "\n" +
+                                                                  "User-agent: wu-is-crawler\n" +
+                                                                  "Disallow: /private\n" +
+                                                                  "\n" +
+                                                                  "User-agent: otherbot\n" +
+                                                                  "Disallow: /\n" +
+                                                                  "\n" +
+                                                                  "User-agent: WU-IS-Crawler\n" +
+                                                                  "Disallow: /tmp\n" +
+                                                                  "Crawl-delay: 2\n", configuration);
+        Assert.assertTrue(directives.allows("/index.html"));
+        Assert.assertFalse(directives.allows("/private/a"));
+        Assert.assertFalse(directives.allows("/tmp/a"));
+        Assert.assertEquals(2.0, directives.getCrawlDelay(), 0.0);
+
+        configuration.setUserAgentName("unknown-crawler");
+        HostDirectives wildcard = RobotstxtParser.parse("User-agent: otherbot\n" +
+                                                                "Disallow: /\n" +
+                                                                "\n" +
+                                                                "User-agent: *\n" +
+                                                                "Disallow: /private\n", configuration);
+        Assert.assertTrue(wildcard.allows("/index.html"));
+        Assert.assertFalse(wildcard.allows("/private"));
+        Assert.assertNull(wildcard.getCrawlDelay());
+    }
+
+    /**
+     * One parsed robots.txt answers for several user agents, each with its own groups.
+     */
+    @Test
+    public void testRulesPerUserAgent() {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.setUserAgentHeader("User-Agent");
+        configuration.getUserAgents().put("shop", "shopbot");
+        HostDirectives directives = RobotstxtParser.parse("User-agent: *\n" +
+                                                                  "Disallow: /private\n" +
+                                                                  "\n" +
+                                                                  "User-agent: shopbot\n" +
+                                                                  "Disallow: /cart\n" +
+                                                                  "Crawl-delay: 5\n" +
+                                                                  "\n" +
+                                                                  "User-agent: newsbot\n" +
+                                                                  "Disallow: /\n" +
+                                                                  "Allow: /news\n", configuration);
+        Assert.assertFalse(directives.allows("/private"));
+        Assert.assertTrue(directives.allows("/cart"));
+        Assert.assertNull(directives.getCrawlDelay());
+
+        String shop = configuration.resolveUserAgent("shop");
+        Assert.assertEquals("shopbot", shop);
+        Assert.assertTrue(directives.allows("/private", shop));
+        Assert.assertFalse(directives.allows("/cart", shop));
+        Assert.assertEquals(5.0, directives.getCrawlDelay(shop), 0.0);
+
+        String news = configuration.resolveUserAgent("Mozilla/5.0 (compatible; NewsBot/2.1)");
+        Assert.assertFalse(directives.allows("/index.html", news));
+        Assert.assertTrue(directives.allows("/news/today", news));
+        Assert.assertTrue(directives.allows("/cart", "otherbot"));
+        Assert.assertFalse(directives.allows("/private", "otherbot"));
+        Assert.assertEquals("wu-is-crawler", configuration.resolveUserAgent(null));
+
+        // more agents than views kept, dropped views are compiled again
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(directives.allows("/private", "bot-" + i));
+            Assert.assertFalse(directives.allows("/cart", shop));
+        }
+    }
+
+    /**
+     * Comments and markup are dropped while reading, content beyond the size limit is ignored.
+     */
+    @Test
+    public void testStreamingParseStopsAtLimit() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        String head = "\uFEFFUser-Agent : *<br>\r\n" +
+                "DISALLOW: /private # secret\r\n" +
+                "<p>Disallow: /<b>tmp</b></p>\n" +
+                "Unknown: x\n" +
+                "Disallow: /cut";
+        byte[] content = (head + "here\nDisallow: /\n").getBytes(StandardCharsets.UTF_8);
+        HostDirectives directives = RobotstxtParser.parse(new ByteArrayInputStream(content), StandardCharsets.UTF_8,
+                                                          head.getBytes(StandardCharsets.UTF_8).length, configuration);
+        Assert.assertFalse(directives.allows("/private/a"));
+        Assert.assertFalse(directives.allows("/tmp/a"));
+        // the line cut off by the limit is dropped
+        Assert.assertTrue(directives.allows("/cut"));
+        Assert.assertTrue(directives.allows("/index.html"));
+
+        HostDirectives complete = RobotstxtParser.parse(new ByteArrayInputStream(content), StandardCharsets.UTF_8,
+                                                        content.length, configuration);
+        Assert.assertFalse(complete.allows("/index.html"));
+
+        // a robots.txt of exactly the limit keeps its last line without a line break
+        byte[] exact = head.getBytes(StandardCharsets.UTF_8);
+        HostDirectives unterminated = RobotstxtParser.parse(new ByteArrayInputStream(exact), StandardCharsets.UTF_8,
+                                                            exact.length, configuration);
+        Assert.assertFalse(unterminated.allows("/cut"));
+    }
+
+    /**
+     * A host failing to answer is disallowed until it answers, without another request
+     * before the backoff runs out. A robots.txt read before keeps applying.
+     */
+    @Test
+    public void testUnreachableHostBacksOff() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setFailureExpiration(TimeUnit.MINUTES.toMillis(1));
+        configuration.setMaxFailureExpiration(TimeUnit.MINUTES.toMillis(4));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(1), configuration.getFailureBackoff(1));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(2), configuration.getFailureBackoff(2));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(4), configuration.getFailureBackoff(3));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(4), configuration.getFailureBackoff(40));
+
+        AtomicInteger fetches = new AtomicInteger();
+        List<HostDirectives> failed = new ArrayList<>();
+        HostDirectives read = RobotstxtParser.parse("User-agent: *\nDisallow: /private", configuration);
+        RobotstxtHandler handler = new RobotstxtHandler() {
+            {
+                this.config = configuration;
+                long now = System.currentTimeMillis();
+                failed.add(unreachable(null, now));
+                failed.add(unreachable(failed.get(0), now));
+                failed.add(unreachable(read, now));
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                fetches.incrementAndGet();
+                return unreachable(previous, System.currentTimeMillis());
+            }
+        };
+        handler.afterPropertiesSet();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertFalse(handler.allows(new URL("http://example.com/index" + i + ".html")));
+            }
+            Assert.assertEquals(1, fetches.get());
+
+            Assert.assertTrue(failed.get(0).isUnreachable());
+            Assert.assertEquals(2, failed.get(1).getFailures());
+            Assert.assertEquals(TimeUnit.MINUTES.toMillis(1),
+                                failed.get(1).getExpires() - failed.get(0).getExpires());
+            Assert.assertSame(read, failed.get(2));
+            Assert.assertTrue(read.allows("/index.html"));
+            Assert.assertFalse(read.allows("/private"));
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    /**
+     * A prefetch requests each distinct host once and counts hosts already cached and
+     * failing hosts separately.
+     */
+    @Test
+    public void testPrefetchResolvesEachHostOnce() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setPrefetchThreads(4);
+        ConcurrentHashMap<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        RobotstxtHandler handler = new RobotstxtHandler() {
+            {
+                this.config = configuration;
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                fetches.computeIfAbsent(url.getHost(), h -> new AtomicInteger()).incrementAndGet();
+                if (url.getHost().startsWith("down")) {
+                    return unreachable(previous, System.currentTimeMillis());
+                }
+                return RobotstxtParser.parse("User-agent: *\nDisallow: /private", configuration);
+            }
+        };
+        handler.afterPropertiesSet();
+        try {
+            RobotstxtPrefetch none = handler.getLastPrefetch();
+            Assert.assertEquals(0, none.getHosts());
+            Assert.assertFalse(none.isRunning());
+
+            handler.getDirectives(new URL("http://cached.example.com/"));
+            List<String> hosts = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                hosts.add("host" + (i % 20) + ".example.com");
+            }
+            hosts.add("HOST1.example.com");
+            hosts.add("http://host2.example.com/index.html");
+            hosts.add("https://host3.example.com");
+            hosts.add("host4.example.com:8080");
+            hosts.add("cached.example.com");
+            hosts.add("down.example.com");
+            hosts.add("bad:host");
+
+            RobotstxtPrefetch prefetch = handler.prefetch(hosts);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (prefetch.isRunning()) {
+                Assert.assertTrue("prefetch did not complete", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            Assert.assertSame(prefetch, handler.getLastPrefetch());
+            Assert.assertEquals(23, prefetch.getHosts());
+            Assert.assertEquals(20, prefetch.getFetched());
+            Assert.assertEquals(1, prefetch.getCached());
+            Assert.assertEquals(2, prefetch.getFailed());
+            Assert.assertEquals(22, fetches.size());
+            for (Map.Entry<String, AtomicInteger> entry : fetches.entrySet()) {
+                Assert.assertEquals("fetches of " + entry.getKey(), 1, entry.getValue().get());
+            }
+            Assert.assertFalse(handler.allows(new URL("http://host7.example.com/private")));
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    /**
+     * Expired directives keep being used while a single background refresh runs, beyond
+     * the hard-stale limit requests wait for the fetch.
+     */
+    @Test
+    public void testServesStaleWhileRefreshing() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setStaleWhileRevalidate(TimeUnit.MINUTES.toMillis(10));
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicLong expires = new AtomicLong(System.currentTimeMillis() - 1);
+        RobotstxtHandler handler = new RobotstxtHandler() {
+            {
+                this.config = configuration;
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                if (fetches.incrementAndGet() > 1) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new HostDirectives(configuration).setExpires(expires.get());
+            }
+        };
+        handler.afterPropertiesSet();
+        try {
+            URL url = new URL("http://example.com/");
+            HostDirectives expired = handler.getDirectives(url);
+            Assert.assertTrue(expired.needsRefetch());
+            // the refresh blocks, requests still get the expired directives right away
+            for (int i = 0; i < 10; i++) {
+                Assert.assertSame(expired, handler.getDirectives(url));
+            }
+            expires.set(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (handler.getDirectives(url) == expired) {
+                Assert.assertTrue("refresh did not complete", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(2, fetches.get());
+
+            // expired longer than the hard-stale limit, fetched synchronously
+            URL other = new URL("http://example.org/");
+            expires.set(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+            HostDirectives tooOld = handler.getDirectives(other);
+            expires.set(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+            Assert.assertNotSame(tooOld, handler.getDirectives(other));
+            Assert.assertEquals(4, fetches.get());
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    /**
+     * A request that cannot use the expired directives anymore does not wait for a refresh
+     * of its host still queued behind others, it fetches the robots.txt itself.
+     */
+    @Test(timeout = 10_000)
+    public void testQueuedRefreshIsTakenOver() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setStaleWhileRevalidate(TimeUnit.MINUTES.toMillis(10));
+        configuration.setRefreshThreads(1);
+        Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicLong expires = new AtomicLong(System.currentTimeMillis() - 1);
+        RobotstxtHandler handler = new RobotstxtHandler() {
+            {
+                this.config = configuration;
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                fetches.computeIfAbsent(url.getHost(), h -> new AtomicInteger()).incrementAndGet();
+                if (previous != null && url.getHost().equals("blocked.com")) {
+                    blocking.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new HostDirectives(configuration).setExpires(expires.get());
+            }
+        };
+        handler.afterPropertiesSet();
+        try {
+            URL blocked = new URL("http://blocked.com/");
+            URL queued = new URL("http://queued.com/");
+            handler.getDirectives(blocked);
+            HostDirectives expired = handler.getDirectives(queued);
+            // the only refresh thread is busy, the refresh of the other host is queued
+            handler.getDirectives(blocked);
+            blocking.await();
+            Assert.assertSame(expired, handler.getDirectives(queued));
+
+            configuration.setStaleWhileRevalidate(0);
+            expires.set(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+            HostDirectives fetched = handler.getDirectives(queued);
+            Assert.assertNotSame(expired, fetched);
+            Assert.assertFalse(fetched.needsRefetch());
+            Assert.assertEquals(2, fetches.get("queued.com").get());
+        } finally {
+            release.countDown();
+            handler.destroy();
+        }
+    }
+
+    /**
+     * The rest of a robots.txt larger than the maximum size is not downloaded, the request is
+     * aborted once the parser read enough.
+     */
+    @Test
+    public void testOversizedRobotstxtIsNotRead() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setMaxBytes(16 * 1024);
+        long size = 64L * 1024 * 1024;
+        AtomicLong written = new AtomicLong();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/robots.txt", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, size);
+            byte[] rules = "User-agent: *\nDisallow: /private\n".getBytes(StandardCharsets.US_ASCII);
+            byte[] padding = new byte[8192];
+            Arrays.fill(padding, (byte) '#');
+            padding[padding.length - 1] = '\n';
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(rules);
+                written.addAndGet(rules.length);
+                while (written.get() + padding.length <= size) {
+                    out.write(padding);
+                    written.addAndGet(padding.length);
+                }
+                out.write(padding, 0, (int) (size - written.get()));
+            } catch (IOException e) {
+                // the proxy closed the connection
+            }
+        });
+        server.start();
+        RobotstxtHandler handler = new FetchingHandler(configuration);
+        try {
+            String host = "http://localhost:" + server.getAddress().getPort();
+            Assert.assertFalse(handler.allows(new URL(host + "/private")));
+            Assert.assertTrue(handler.allows(new URL(host + "/public")));
+            // only what fits into the socket buffers was sent before the connection was aborted
+            Thread.sleep(200);
+            Assert.assertTrue("written " + written.get(), written.get() < size / 4);
+        } finally {
+            handler.destroy();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * The freshness sent by the server applies within the configured bounds, without
+     * freshness headers the configured expiration applies.
+     */
+    @Test
+    public void testFreshnessIsClamped() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        configuration.setExpiration(TimeUnit.HOURS.toMillis(6));
+        configuration.setMinExpiration(TimeUnit.HOURS.toMillis(1));
+        configuration.setMaxExpiration(TimeUnit.HOURS.toMillis(24));
+        AtomicReference<String> cacheControl = new AtomicReference<>();
+        HttpServer server = robotstxtServer(exchange -> {
+            if (cacheControl.get() != null) {
+                exchange.getResponseHeaders().set("Cache-Control", cacheControl.get());
+            }
+            send(exchange, 200, "User-agent: *\nDisallow: /private\n");
+        });
+        FetchingHandler handler = new FetchingHandler(configuration);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+            cacheControl.set("max-age=60");
+            assertExpires(TimeUnit.HOURS.toMillis(1), handler.fetch(url, null));
+            cacheControl.set("max-age=864000");
+            assertExpires(TimeUnit.HOURS.toMillis(24), handler.fetch(url, null));
+            cacheControl.set("max-age=864000, s-maxage=7200");
+            assertExpires(TimeUnit.HOURS.toMillis(2), handler.fetch(url, null));
+            //not to be cached at all, still cached for the minimum time
+            cacheControl.set("no-cache");
+            assertExpires(TimeUnit.HOURS.toMillis(1), handler.fetch(url, null));
+            cacheControl.set(null);
+            assertExpires(TimeUnit.HOURS.toMillis(6), handler.fetch(url, null));
+        } finally {
+            handler.destroy();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * An unchanged robots.txt is revalidated with its validators, the stored directives are
+     * kept and valid for the freshness of the 304 response.
+     */
+    @Test
+    public void testNotModifiedExtendsRecord() throws Exception {
+        RobotstxtConfiguration configuration = new RobotstxtConfiguration();
+        configuration.getRobotstxt().setPersistent(false);
+        List<String> validators = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = robotstxtServer(exchange -> {
+            String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            validators.add(etag + " " + exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+            if ("\"v1\"".equals(etag)) {
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=7200");
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            exchange.getResponseHeaders().set("Last-Modified", "Mon, 07 Aug 2017 10:00:00 GMT");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+            send(exchange, 200, "User-agent: *\nDisallow: /private\n");
+        });
+        FetchingHandler handler = new FetchingHandler(configuration);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+            HostDirectives fetched = handler.fetch(url, null);
+            Assert.assertEquals("\"v1\"", fetched.getEtag());
+            assertExpires(TimeUnit.HOURS.toMillis(1), fetched);
+            HostDirectives stale = handler.unreachable(fetched, System.currentTimeMillis());
+            Assert.assertEquals(1, stale.getFailures());
+
+            HostDirectives revalidated = handler.fetch(url, stale);
+            Assert.assertSame(fetched, revalidated);
+            Assert.assertEquals(0, revalidated.getFailures());
+            assertExpires(TimeUnit.HOURS.toMillis(2), revalidated);
+            Assert.assertFalse(revalidated.allows("/private", null));
+            Assert.assertTrue(revalidated.allows("/public", null));
+            Assert.assertEquals(Arrays.asList("null null", "\"v1\" Mon, 07 Aug 2017 10:00:00 GMT"), validators);
+        } finally {
+            handler.destroy();
+            server.stop(0);
+        }
+    }
+
+    private static void assertExpires(long expected, HostDirectives directives) {
+        long remaining = directives.getExpires() - System.currentTimeMillis();
+        Assert.assertTrue("remaining " + remaining, remaining <= expected && remaining > expected - 5000);
+    }
+
+    private static HttpServer robotstxtServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/robots.txt", handler);
+        server.start();
+        return server;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Handler requesting robots.txt files over HTTP.
+     */
+    private static final class FetchingHandler extends RobotstxtHandler {
+
+        private final CloseableHttpClient client = HttpClients.createDefault();
+
+        FetchingHandler(RobotstxtConfiguration configuration) {
+            this.config = configuration;
+            ReflectionTestUtils.setField(this, "httpUtils", new HttpUtils() {
+                @Override
+                public CloseableHttpClient getHttpClient() {
+                    return client;
+                }
+            });
+            ReflectionTestUtils.setField(this, "counterService", new CounterService() {
+                @Override
+                public void increment(String metricName) {
+                }
+
+                @Override
+                public void decrement(String metricName) {
+                }
+
+                @Override
+                public void reset(String metricName) {
+                }
+            });
+            afterPropertiesSet();
+        }
+
+        HostDirectives fetch(URL url, HostDirectives previous) {
+            return fetchDirectives(url, previous);
+        }
+
+        @Override
+        protected HostDirectives unreachable(HostDirectives previous, long now) {
+            return super.unreachable(previous, now);
+        }
+    }
+}
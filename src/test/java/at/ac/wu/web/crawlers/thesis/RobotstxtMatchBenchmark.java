@@ -0,0 +1,134 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.HostDirectives;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.Rule;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RuleMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compiled {@link RuleMatcher} with the previous matching, which sorted all
+ * rules of a group by regular expression match on every check.
+ * <p>
+ * Run with <tt>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=at.ac.wu.web.crawlers.thesis.RobotstxtMatchBenchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RobotstxtMatchBenchmark {
+
+    private static final String[] PATHS = {
+            "/", "/dp/B00EXAMPLE", "/gp/cart/view.html", "/s?k=robots&session=42", "/b/?&node=123",
+            "/electronics/b/ref=nav?ie=UTF8&node=1", "/tag/books/", "/product/feed.json", "/help/index.html",
+            "/wiki/Main_Page", "/wiki/Special:Search", "/wiki/Spezial:Export/Foo", "/w/index.php?title=Foo",
+            "/w/load.php?modules=site", "/wiki/Wikipedia:Articles_for_deletion/Foo", "/api/rest_v1/page/html/Foo"};
+
+    @Param({"shop.txt", "encyclopedia.txt"})
+    public String file;
+    private List<Rule> rules;
+    private RuleMatcher matcher;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RobotstxtMatchBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        rules = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(
+                "/robots/" + file), StandardCharsets.UTF_8))) {
+            boolean wildcardGroup = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String lower = line.toLowerCase();
+                if (lower.startsWith("user-agent:")) {
+                    wildcardGroup = line.substring(11).trim().equals("*");
+                } else if (wildcardGroup && lower.startsWith("allow:")) {
+                    rules.add(new Rule(HostDirectives.ALLOWED, line.substring(6).trim()));
+                } else if (wildcardGroup && lower.startsWith("disallow:")) {
+                    rules.add(new Rule(HostDirectives.DISALLOWED, line.substring(9).trim()));
+                }
+            }
+        }
+        matcher = new RuleMatcher(rules);
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        for (String path : PATHS) {
+            blackhole.consume(matcher.checkAccess(path));
+        }
+    }
+
+    @Benchmark
+    public void sortedRegex(Blackhole blackhole) {
+        for (String path : PATHS) {
+            blackhole.consume(sortedRegexCheck(path));
+        }
+    }
+
+    /**
+     * The matching as it was done before rules were compiled.
+     */
+    private int sortedRegexCheck(String path) {
+        Set<Rule> sorted = new TreeSet<>(new PathComparator(path));
+        sorted.addAll(rules);
+        for (Rule rule : sorted) {
+            if (rule.matches(path)) {
+                return rule.type;
+            }
+        }
+        return HostDirectives.UNDEFINED;
+    }
+
+    private static class PathComparator implements Comparator<Rule> {
+        private final String path;
+
+        PathComparator(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public int compare(Rule lhs, Rule rhs) {
+            boolean p1Match = lhs.matches(path);
+            boolean p2Match = rhs.matches(path);
+            if (p1Match && !p2Match) {
+                return -1;
+            } else if (p2Match && !p1Match) {
+                return 1;
+            }
+            String p1 = lhs.getPattern().toString();
+            String p2 = rhs.getPattern().toString();
+            if (p1.length() != p2.length()) {
+                return Integer.compare(p2.length(), p1.length());
+            }
+            return p1.compareTo(p2);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.HostDirectives;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtParser;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.UserAgentDirectives;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the streaming {@link RobotstxtParser} with the previous parsing, which read the
+ * whole body into a String and ran regular expressions on every line. The corpus repeats
+ * the test robots.txt files up to a few megabytes, with comments and HTML markup added.
+ * <p>
+ * Run with <tt>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=at.ac.wu.web.crawlers.thesis.RobotstxtParseBenchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RobotstxtParseBenchmark {
+
+    private static final Pattern RULE_PATTERN = Pattern.compile("(?i)^([A-Za-z\\-]+):(.*)");
+    private static final Set<String> VALID_RULES = new HashSet<>(
+            Arrays.asList("allow", "disallow", "user-agent", "crawl-delay", "host", "sitemap"));
+
+    @Param({"shop.txt", "encyclopedia.txt"})
+    public String file;
+    @Param({"1048576", "8388608"})
+    public int size;
+    private byte[] corpus;
+    private RobotstxtConfiguration config;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RobotstxtParseBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        config = new RobotstxtConfiguration();
+        config.setMaxBytes(Integer.MAX_VALUE);
+        ByteArrayOutputStream robotstxt = new ByteArrayOutputStream();
+        try (InputStream in = getClass().getResourceAsStream("/robots/" + file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                robotstxt.write(buffer, 0, read);
+            }
+        }
+        byte[] part = ("<p># generated section</p>\n" + new String(robotstxt.toByteArray(), StandardCharsets.UTF_8)
+                + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + part.length);
+        while (out.size() < size) {
+            out.write(part);
+        }
+        corpus = out.toByteArray();
+    }
+
+    @Benchmark
+    public HostDirectives streaming() throws Exception {
+        return RobotstxtParser.parse(new ByteArrayInputStream(corpus), StandardCharsets.UTF_8, Integer.MAX_VALUE,
+                                     config);
+    }
+
+    @Benchmark
+    public HostDirectives regex() {
+        return regexParse(new String(corpus, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The parsing as it was done before it was streamed.
+     */
+    private HostDirectives regexParse(String content) {
+        HostDirectives directives = new HostDirectives(config);
+        StringTokenizer st = new StringTokenizer(content, "\n\r");
+        Set<String> userAgents = new HashSet<>();
+        UserAgentDirectives uaDirectives = null;
+        while (st.hasMoreTokens()) {
+            String line = st.nextToken();
+            int commentIndex = line.indexOf('#');
+            if (commentIndex > -1) {
+                line = line.substring(0, commentIndex);
+            }
+            line = line.replaceAll("<[^>]+>", "").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            Matcher m = RULE_PATTERN.matcher(line);
+            if (m.matches()) {
+                String rule = m.group(1).toLowerCase();
+                String value = m.group(2).trim();
+                if (VALID_RULES.contains(rule)) {
+                    if (rule.equals("user-agent")) {
+                        if (uaDirectives != null) {
+                            userAgents = new HashSet<>();
+                            directives.addDirectives(uaDirectives);
+                            uaDirectives = null;
+                        }
+                        userAgents.add(value.toLowerCase());
+                    } else {
+                        if (uaDirectives == null) {
+                            if (userAgents.isEmpty()) {
+                                userAgents.add("*");
+                            }
+                            uaDirectives = new UserAgentDirectives(userAgents);
+                        }
+                        uaDirectives.add(rule, value);
+                    }
+                }
+            }
+        }
+        directives.addDirectives(uaDirectives);
+        directives.compile();
+        return directives;
+    }
+}
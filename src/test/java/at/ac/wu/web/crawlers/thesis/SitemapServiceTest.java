@@ -0,0 +1,254 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.http.HttpUtils;
+import at.ac.wu.web.crawlers.thesis.politeness.PolitenessCache;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.HostDirectives;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtConfiguration;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtHandler;
+import at.ac.wu.web.crawlers.thesis.politeness.robotstxt.RobotstxtParser;
+import at.ac.wu.web.crawlers.thesis.service.SitemapService;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class SitemapServiceTest {
+
+    private static final long WAIT = 30;
+
+    private HttpServer server;
+    private String base;
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger exited = new AtomicInteger();
+    private final RobotstxtConfiguration config = new RobotstxtConfiguration();
+    private volatile boolean slotFree = true;
+    private SitemapService service;
+    private CloseableHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        base = "http://localhost:" + server.getAddress().getPort();
+        serve("/index.xml", xml("<sitemapindex>" +
+                                        "<sitemap><loc>" + base + "/a.xml</loc></sitemap>" +
+                                        "<sitemap><loc>" + base + "/b.xml.gz</loc></sitemap>" +
+                                        "<sitemap><loc>" + base + "/private.xml</loc></sitemap>" +
+                                        "<sitemap><loc>" + base + "/a.xml</loc></sitemap>" +
+                                        "</sitemapindex>"));
+        serve("/a.xml", xml("<urlset><url><loc>" + base + "/1</loc></url><url><loc>" + base + "/2</loc></url>" +
+                                    "</urlset>"));
+        serve("/b.xml.gz", gzip(xml("<urlset><url><loc>" + base + "/3</loc></url></urlset>")));
+        serve("/private.xml", xml("<urlset><url><loc>" + base + "/secret</loc></url></urlset>"));
+        server.start();
+
+        config.getRobotstxt().setPersistent(false);
+        RobotstxtHandler robotsTxt = new RobotstxtHandler() {
+            {
+                this.config = SitemapServiceTest.this.config;
+            }
+
+            @Override
+            protected HostDirectives fetchDirectives(URL url, HostDirectives previous) {
+                return RobotstxtParser.parse("User-agent: *\nDisallow: /private\n\nUser-agent: shopbot\n" +
+                                                     "Disallow: /private\nDisallow: /b.xml\nSitemap: " + base +
+                                                     "/index.xml", config);
+            }
+        };
+        robotsTxt.afterPropertiesSet();
+        PolitenessCache politenessCache = new PolitenessCache() {
+            @Override
+            public long reserve(String domain) {
+                reserved.incrementAndGet();
+                //every sitemap request waits for the delay of its host
+                return slotFree ? TimeUnit.MILLISECONDS.toNanos(WAIT) : -1;
+            }
+
+            @Override
+            public int getRemainingDelay(String domain) {
+                return 100;
+            }
+
+            @Override
+            public boolean tryEnter(String domain) {
+                return true;
+            }
+
+            @Override
+            public void exit(String domain) {
+                exited.incrementAndGet();
+            }
+
+            @Override
+            public void backOff(String domain, int statusCode, String retryAfter) {
+            }
+
+            @Override
+            public void updateLatency(String domain, long timeMillis, int statusCode) {
+            }
+        };
+        client = HttpClients.createDefault();
+        HttpUtils httpUtils = new HttpUtils() {
+            @Override
+            public CloseableHttpClient getHttpClient() {
+                return client;
+            }
+        };
+        service = new SitemapService();
+        ReflectionTestUtils.setField(service, "robotsTxt", robotsTxt);
+        ReflectionTestUtils.setField(service, "config", config);
+        ReflectionTestUtils.setField(service, "politenessCache", politenessCache);
+        ReflectionTestUtils.setField(service, "httpUtils", httpUtils);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    /**
+     * Sitemap indexes are expanded, every sitemap is read once after the politeness delay and
+     * sitemaps disallowed by robots.txt are never requested.
+     */
+    @Test
+    public void testExpand() throws Exception {
+        List<String> urls = new ArrayList<>();
+        long start = System.nanoTime();
+        int count = service.expand("localhost:" + server.getAddress().getPort(), null, urls::add);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertEquals(Arrays.asList(base + "/1", base + "/2", base + "/3"), urls);
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(1, fetches("/index.xml"));
+        Assert.assertEquals(1, fetches("/a.xml"));
+        Assert.assertEquals(1, fetches("/b.xml.gz"));
+        Assert.assertEquals(0, fetches("/private.xml"));
+        Assert.assertEquals(3, reserved.get());
+        Assert.assertEquals(3, exited.get());
+        Assert.assertTrue("elapsed " + elapsed, elapsed >= 3 * WAIT);
+    }
+
+    /**
+     * Sitemaps are checked against the robots.txt rules of the user agent of the request.
+     */
+    @Test
+    public void testExpandForUserAgent() throws Exception {
+        List<String> urls = new ArrayList<>();
+        int count = service.expand("localhost:" + server.getAddress().getPort(), "shopbot", urls::add);
+
+        Assert.assertEquals(Arrays.asList(base + "/1", base + "/2"), urls);
+        Assert.assertEquals(2, count);
+        Assert.assertEquals(1, fetches("/a.xml"));
+        Assert.assertEquals(0, fetches("/b.xml.gz"));
+        Assert.assertEquals(0, fetches("/private.xml"));
+    }
+
+    /**
+     * No sitemap is requested once waiting for a slot would exceed the sitemap timeout.
+     */
+    @Test
+    public void testExpandStopsAtTimeout() throws Exception {
+        config.setSitemapTimeout(50);
+        slotFree = false;
+        List<String> urls = new ArrayList<>();
+        Assert.assertEquals(0, service.expand("localhost:" + server.getAddress().getPort(), null, urls::add));
+        Assert.assertTrue(urls.isEmpty());
+        Assert.assertEquals(0, fetches("/index.xml"));
+        Assert.assertEquals(0, exited.get());
+    }
+
+    /**
+     * A client gone away stops the expansion, the slot of the sitemap being read is released.
+     */
+    @Test
+    public void testExpandStopsWhenClientFails() throws Exception {
+        try {
+            service.expand("localhost:" + server.getAddress().getPort(), null, url -> {
+                throw new UncheckedIOException(new IOException("Broken pipe"));
+            });
+            Assert.fail();
+        } catch (UncheckedIOException e) {
+            Assert.assertEquals("Broken pipe", e.getCause().getMessage());
+        }
+        Assert.assertEquals(1, fetches("/a.xml"));
+        Assert.assertEquals(0, fetches("/b.xml.gz"));
+        Assert.assertEquals(reserved.get(), exited.get());
+    }
+
+    @Test
+    public void testSitemapIndexAndUrlSet() throws Exception {
+        List<String> sitemaps = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        SitemapService.parse(stream("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                                            "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n" +
+                                            "  <sitemap><loc>http://example.com/a.xml</loc></sitemap>\n" +
+                                            "  <sitemap><loc> http://example.com/b.xml.gz </loc>" +
+                                            "<lastmod>2017-08-01</lastmod></sitemap>\n" +
+                                            "</sitemapindex>"), sitemaps::add, urls::add);
+        Assert.assertEquals(Arrays.asList("http://example.com/a.xml", "http://example.com/b.xml.gz"), sitemaps);
+        Assert.assertTrue(urls.isEmpty());
+
+        sitemaps.clear();
+        SitemapService.parse(stream("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                                            "<url><loc>http://example.com/</loc><priority>1.0</priority></url>" +
+                                            "<url><loc>http://example.com/a?x=1&amp;y=2</loc></url>" +
+                                            "<url><loc></loc></url>" +
+                                            "</urlset>"), sitemaps::add, urls::add);
+        Assert.assertEquals(Collections.emptyList(), sitemaps);
+        Assert.assertEquals(Arrays.asList("http://example.com/", "http://example.com/a?x=1&y=2"), urls);
+    }
+
+    private void serve(String path, byte[] body) {
+        server.createContext(path, exchange -> {
+            fetches.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    private int fetches(String path) {
+        AtomicInteger count = fetches.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static byte[] xml(String xml) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static ByteArrayInputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,100 @@
+package at.ac.wu.web.crawlers.thesis;
+
+import at.ac.wu.web.crawlers.thesis.politeness.TimingWheel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 5;
+
+    private TimingWheel wheel;
+
+    @After
+    public void tearDown() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * Each task goes into the bucket of its deadline and is released within a few ticks
+     * after it, never before.
+     */
+    @Test
+    public void testTasksRunAfterTheirDelay() throws Exception {
+        wheel = new TimingWheel(TICK, TimeUnit.MILLISECONDS, 64, Runnable::run, "TimingWheelTest");
+        long[] delays = {120, 0, 23, 7, 50};
+        Map<Long, Long> ran = run(delays);
+        for (long delay : delays) {
+            Assert.assertTrue("ran " + ran.get(delay) + " ms after " + delay, ran.get(delay) >= delay);
+            Assert.assertTrue("ran " + ran.get(delay) + " ms after " + delay, ran.get(delay) < delay + 100);
+        }
+        Assert.assertTrue(ran.get(7L) < ran.get(23L));
+        Assert.assertTrue(ran.get(23L) < ran.get(50L));
+        Assert.assertTrue(ran.get(50L) < ran.get(120L));
+        Assert.assertEquals(0, wheel.getPending());
+    }
+
+    /**
+     * Tasks further ahead than one turn of the wheel share buckets with earlier ones, they
+     * wait for their remaining rounds.
+     */
+    @Test
+    public void testWrapAround() throws Exception {
+        //one turn of the wheel takes 8 ticks
+        wheel = new TimingWheel(TICK, TimeUnit.MILLISECONDS, 8, Runnable::run, "TimingWheelTest");
+        long turn = 8 * TICK;
+        long[] delays = {10, 10 + turn, 10 + 3 * turn};
+        Map<Long, Long> ran = run(delays);
+        for (long delay : delays) {
+            Assert.assertTrue("ran " + ran.get(delay) + " ms after " + delay, ran.get(delay) >= delay);
+            Assert.assertTrue("ran " + ran.get(delay) + " ms after " + delay, ran.get(delay) < delay + 100);
+        }
+    }
+
+    /**
+     * Stopping the wheel cancels the tasks not yet released and hands them back.
+     */
+    @Test
+    public void testStopCancelsPendingTasks() throws Exception {
+        wheel = new TimingWheel(TICK, TimeUnit.MILLISECONDS, 64, Runnable::run, "TimingWheelTest");
+        CountDownLatch ran = new CountDownLatch(1);
+        Runnable task = ran::countDown;
+        wheel.schedule(task, 50, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, wheel.getPending());
+        Assert.assertEquals(Collections.singletonList(task), wheel.stop());
+        Assert.assertEquals(0, wheel.getPending());
+        Assert.assertFalse(ran.await(200, TimeUnit.MILLISECONDS));
+        try {
+            wheel.schedule(ran::countDown, 0, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, ran.getCount());
+        }
+    }
+
+    /**
+     * @return milliseconds after scheduling each task ran, by its delay
+     */
+    private Map<Long, Long> run(long[] delays) throws InterruptedException {
+        Map<Long, Long> ran = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (long delay : delays) {
+            wheel.schedule(() -> {
+                ran.put(delay, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                done.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return ran;
+    }
+}